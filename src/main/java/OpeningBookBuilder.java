@@ -0,0 +1,79 @@
+import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.agents.GameUtils;
+import at.ac.tuwien.ifs.sge.leeroy.agents.InitialPlacementNode;
+import at.ac.tuwien.ifs.sge.leeroy.agents.InitialPlacementSearch;
+import at.ac.tuwien.ifs.sge.leeroy.agents.OpeningBook;
+import at.ac.tuwien.ifs.sge.leeroy.phase.PhaseUtils;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Builds the opening book of the initial placement offline (see OpeningBook).
+ * Starting from the empty board, every occupation is searched for a fixed time with Leeroy's initial placement search
+ * and its best reply is stored. The best replies of every searched occupation are followed for a number of placements,
+ * so the book covers the openings played by Leeroy and the most likely answers of the enemy.
+ * Usage: OpeningBookBuilder [book file] [board yaml] [seconds per occupation] [placements] [replies followed]
+ */
+public class OpeningBookBuilder {
+
+    private static final Logger logger = Logger.getLogger(OpeningBookBuilder.class.getName());
+
+    private static final String DEFAULT_BOOK_FILE = "opening-book.bin";
+    private static final int NUMBER_OF_PLAYERS = 2;
+    private static final double DEFAULT_SECONDS_PER_OCCUPATION = 10;
+    private static final int DEFAULT_PLACEMENTS = 4;
+    private static final int DEFAULT_REPLIES_FOLLOWED = 3;
+
+    public static void main(String[] args) throws Exception {
+        Path bookFile = Path.of(args.length > 0 ? args[0] : DEFAULT_BOOK_FILE);
+        Risk initialGame = args.length > 1 ? new Risk(Files.readString(Path.of(args[1])), NUMBER_OF_PLAYERS) : new Risk();
+        long searchNanos = (long) ((args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_SECONDS_PER_OCCUPATION) * 1e9);
+        int placements = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PLACEMENTS;
+        int repliesFollowed = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_REPLIES_FOLLOWED;
+
+        SortedMap<Long, Integer> replies = new TreeMap<>();
+        Deque<Risk> games = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        games.add(initialGame);
+        depths.add(0);
+        while (!games.isEmpty()) {
+            Risk game = games.poll();
+            int depth = depths.poll();
+            RiskBoard board = game.getBoard();
+            if (!PhaseUtils.stillUnoccupiedTerritories(board)) {
+                continue;
+            }
+            InitialPlacementNode root = InitialPlacementNode.createRoot((game.getCurrentPlayer() + 1) % NUMBER_OF_PLAYERS, board);
+            if (replies.containsKey(root.getOccupationHash())) {
+                continue; // reached by placements in another order
+            }
+            long deadline = System.nanoTime() + searchNanos;
+            InitialPlacementSearch.searchBestSuccessor(root, GameUtils.partialInitialExpansionFunction(board),
+                    GameUtils.partialInitialPlayOutFunction(board), () -> System.nanoTime() >= deadline);
+            int[] rankedSuccessors = InitialPlacementSearch.rankSuccessors(root);
+            replies.put(root.getOccupationHash(), root.getSuccessorTerritory(rankedSuccessors[0]));
+            logger.info(String.format("Occupation %d of depth %d: occupy %d", replies.size(), depth,
+                    root.getSuccessorTerritory(rankedSuccessors[0])));
+
+            if (depth + 1 < placements) {
+                for (int i = 0; i < Math.min(repliesFollowed, rankedSuccessors.length); i++) {
+                    games.add((Risk) game.doAction(RiskAction.select(root.getSuccessorTerritory(rankedSuccessors[i]))));
+                    depths.add(depth + 1);
+                }
+            }
+        }
+
+        OpeningBook.write(bookFile, BoardTopology.of(initialGame.getBoard()).getLayoutKey(), replies);
+        System.out.println(String.format("Wrote %d occupations to %s", replies.size(), bookFile));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,127 @@
+import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.RolloutRisk;
+import at.ac.tuwien.ifs.sge.util.Util;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Plays random games on sge's risk implementation and mirrors every action of the attack phases on a RolloutRisk.
+ * After each action the owners, troops, and phases of both are compared, so differences between the rollout model
+ * and the actual rules show up before they distort the simulations of the agents. Every mirrored action is also
+ * converted back with RolloutRisk.toRiskAction, which has to give the original action (casualties have none).
+ * Nothing runs this check automatically, it should be run after changing RolloutRisk or updating the sge dependencies:
+ * {@code java -cp target/leeroy-fat.jar RolloutDifferentialCheck [games]}, it exits with status 1 on any mismatch.
+ */
+public class RolloutDifferentialCheck {
+
+    private static final Logger logger = Logger.getLogger(RolloutDifferentialCheck.class.getName());
+
+    private static final int DEFAULT_GAMES = 5000;
+    private static final int PROGRESS_INTERVAL = 500;
+    private static final int MAX_ACTIONS_PER_GAME = 5000;
+    private static final int MAX_REPORTED_MISMATCHES = 20;
+
+    private static int mismatches = 0;
+    private static int comparedStates = 0;
+    private static int comparedActions = 0;
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+        logger.info(String.format("Comparing the rollout model with %d random games..", games));
+
+        for (int i = 0; i < games; i++) {
+            playGame(i);
+            if ((i + 1) % PROGRESS_INTERVAL == 0) {
+                logger.info(String.format("%d games, %d states compared, %d mismatches", i + 1, comparedStates, mismatches));
+            }
+        }
+        System.out.println(String.format("Compared %d states and %d action conversions, found %d mismatches",
+                comparedStates, comparedActions, mismatches));
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    private static void playGame(int gameIndex) {
+        Risk game = new Risk();
+        BoardTopology topology = BoardTopology.of(game.getBoard());
+        RolloutRisk rollout = null;
+        for (int actions = 0; actions < MAX_ACTIONS_PER_GAME && !game.isGameOver(); actions++) {
+            RiskBoard board = game.getBoard();
+            if (rollout == null && board.isAttackPhase() && game.getCurrentPlayer() >= 0) {
+                rollout = RolloutRisk.of(game, topology, null);
+                compare(gameIndex, game, rollout, "start of attack phase");
+            }
+
+            // chance nodes are resolved like in the trees of the agents, by a random possible outcome
+            RiskAction action = Util.selectRandom(game.getPossibleActions());
+            if (rollout != null) {
+                long rolloutAction = rollout.fromRiskAction(action);
+                checkRoundTrip(gameIndex, rollout, action, rolloutAction);
+                rollout.apply(rolloutAction);
+            }
+            game = (Risk) game.doAction(action);
+            if (rollout != null) {
+                compare(gameIndex, game, rollout, action.toString());
+                if (!rollout.isRunning()) {
+                    rollout = null;
+                }
+            }
+        }
+    }
+
+    private static void checkRoundTrip(int gameIndex, RolloutRisk rollout, RiskAction action, long rolloutAction) {
+        comparedActions++;
+        RiskAction convertedAction = RolloutRisk.toRiskAction(rolloutAction);
+        if (rollout.getPhase() == RolloutRisk.CASUALTIES ? convertedAction != null : !action.equals(convertedAction)) {
+            report(gameIndex, action.toString(), String.format("converted back to %s", convertedAction));
+        }
+    }
+
+    private static void compare(int gameIndex, Risk game, RolloutRisk rollout, String after) {
+        comparedStates++;
+        RiskBoard board = game.getBoard();
+        int expectedPhase = getExpectedPhase(game, board);
+        if (rollout.getPhase() != expectedPhase) {
+            report(gameIndex, after, String.format("phase %d instead of %d", rollout.getPhase(), expectedPhase));
+        }
+        if (expectedPhase == RolloutRisk.CASUALTIES) {
+            Set<RiskAction> outcomes = game.getPossibleActions();
+            if (rollout.getComparedDice() + 1 != outcomes.size()) {
+                report(gameIndex, after, String.format("%d compared dice for %d casualty outcomes",
+                        rollout.getComparedDice(), outcomes.size()));
+            }
+        }
+        for (Map.Entry<Integer, RiskTerritory> territory : board.getTerritories().entrySet()) {
+            int id = territory.getKey();
+            if (rollout.getOwner(id) != territory.getValue().getOccupantPlayerId()
+                    || rollout.getTroops(id) != territory.getValue().getTroops()) {
+                report(gameIndex, after, String.format("territory %d is %d/%d instead of %d/%d", id,
+                        rollout.getOwner(id), rollout.getTroops(id),
+                        territory.getValue().getOccupantPlayerId(), territory.getValue().getTroops()));
+            }
+        }
+    }
+
+    private static int getExpectedPhase(Risk game, RiskBoard board) {
+        if (game.isGameOver()) {
+            return RolloutRisk.GAME_OVER;
+        } else if (board.isAttackPhase()) {
+            return game.getCurrentPlayer() >= 0 ? RolloutRisk.ATTACK : RolloutRisk.CASUALTIES;
+        } else if (board.isOccupyPhase()) {
+            return RolloutRisk.OCCUPY;
+        }
+        return RolloutRisk.ATTACK_ENDED;
+    }
+
+    private static void report(int gameIndex, String after, String mismatch) {
+        mismatches++;
+        if (mismatches <= MAX_REPORTED_MISMATCHES) {
+            System.out.println(String.format("Game %d, after %s: %s", gameIndex, after, mismatch));
+        }
+    }
+}
@@ -3,9 +3,17 @@ package at.ac.tuwien.ifs.sge.leeroy.agents;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.TerritorySet;
+import org.javatuples.Pair;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class generates attack actions
@@ -26,21 +34,73 @@ public class AttackActionSupplier {
      * @return All attack actions we want to be considered (In an MCTS for example)
      */
     public static Set<RiskAction> createActions(Risk risk, RiskBoard board, Integer maxAttackerCnt) {
-        final Set<Integer> sourceTerritoryIds = board
-                .getTerritoriesOccupiedByPlayer(risk.getCurrentPlayer());
-        return sourceTerritoryIds
-                .stream()
-                .flatMap(tId -> AttackActionSupplier.createActions(board, tId, maxAttackerCnt).stream())
-                .collect(Collectors.toSet());
+        return createActions(risk, board, BoardTopology.of(board), maxAttackerCnt);
     }
 
-    private static Set<RiskAction> createActions(RiskBoard board, Integer srcTerritoryId, Integer maxAttackerCnt) {
-        final Set<Integer> targetTerritoryIds = board
-                .neighboringEnemyTerritories(srcTerritoryId);
-        return targetTerritoryIds
-                .stream()
-                .flatMap(tId -> AttackActionSupplier.createActions(board, srcTerritoryId, tId, maxAttackerCnt).stream())
-                .collect(Collectors.toSet());
+    /**
+     * Create all attack actions we want to be considered, on a board whose topology is already known (e.g. the one
+     * of the root of a search)
+     *
+     * @param risk           The risk game
+     * @param board          The risk board (This is the board of the game, it is cached in the agent to save time & space)
+     * @param topology       The topology of the board
+     * @param maxAttackerCnt The maximum amount of attackers we can use to attack
+     * @return All attack actions we want to be considered (In an MCTS for example)
+     */
+    public static Set<RiskAction> createActions(Risk risk, RiskBoard board, BoardTopology topology, Integer maxAttackerCnt) {
+        TerritorySet sourceTerritoryIds = topology.occupiedBy(board, risk.getCurrentPlayer());
+        Set<RiskAction> actions = new HashSet<>();
+        for (int tId = sourceTerritoryIds.next(0); tId >= 0; tId = sourceTerritoryIds.next(tId + 1)) {
+            addActions(actions, board, topology, sourceTerritoryIds, tId, maxAttackerCnt);
+        }
+        return actions;
+    }
+
+    /**
+     * Create all attack actions we want to be considered, ordered by their win probability (highest first).
+     * This can be used to consider the most promising attacks first (e.g. for progressive widening in an MCTS).
+     *
+     * @param risk           The risk game
+     * @param board          The risk board (This is the board of the game, it is cached in the agent to save time & space)
+     * @param topology       The topology of the board
+     * @param maxAttackerCnt The maximum amount of attackers we can use to attack
+     * @return All attack actions we want to be considered, the most promising one first
+     */
+    public static List<RiskAction> createRankedActions(Risk risk, RiskBoard board, BoardTopology topology, Integer maxAttackerCnt) {
+        List<RiskAction> actions = new ArrayList<>(createActions(risk, board, topology, maxAttackerCnt));
+        int[] attackTroops = new int[actions.size()];
+        int[] defendTroops = new int[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            attackTroops[i] = board.getMobileTroops(actions.get(i).attackingId());
+            defendTroops[i] = board.getTerritoryTroops(actions.get(i).defendingId());
+        }
+        double[] winProbabilities = BattleSimulator.getWinProbabilities(attackTroops, defendTroops);
+        return IntStream.range(0, actions.size())
+                .mapToObj(i -> new Pair<>(actions.get(i), winProbabilities[i]))
+                .sorted(Comparator.comparingDouble((Pair<RiskAction, Double> rankedAction) -> rankedAction.getValue1()).reversed())
+                .map(Pair::getValue0)
+                .collect(Collectors.toList());
+    }
+
+    private static void addActions(Set<RiskAction> actions, RiskBoard board, BoardTopology topology, TerritorySet ownTerritoryIds,
+                                   int srcTerritoryId, Integer maxAttackerCnt) {
+        TerritorySet neighborIds = topology.getNeighbors(srcTerritoryId);
+        for (int tId = neighborIds.next(0); tId >= 0; tId = neighborIds.next(tId + 1)) {
+            if (!ownTerritoryIds.contains(tId)) {
+                actions.addAll(AttackActionSupplier.createActions(board, srcTerritoryId, tId, maxAttackerCnt));
+            }
+        }
+    }
+
+    /**
+     * Check whether an all-out attack is worth considering
+     *
+     * @param attackTroops   The troops which can attack
+     * @param defenderTroops The troops defending
+     * @return Whether the attackers are likely enough to win
+     */
+    public static boolean isAdvantageous(int attackTroops, int defenderTroops) {
+        return BattleSimulator.getWinProbability(attackTroops, defenderTroops) >= RISK_THRESHOLD;
     }
 
     /**
@@ -58,7 +118,7 @@ public class AttackActionSupplier {
         int maxAttackTroops = board.getMobileTroops(srcTerritoryId);
         final int defenderTroops = board.getTerritoryTroops(targetTerritoryId);
 
-        if (BattleSimulator.getWinProbability(maxAttackTroops, defenderTroops) >= RISK_THRESHOLD) {
+        if (isAdvantageous(maxAttackTroops, defenderTroops)) {
             maxAttackTroops = maxAttackerCnt != null ? Math.min(maxAttackTroops, maxAttackerCnt) : maxAttackTroops; // return only valid attacks
             return Set.of(RiskAction.attack(srcTerritoryId, targetTerritoryId, maxAttackTroops));
         }
@@ -1,56 +1,208 @@
 package at.ac.tuwien.ifs.sge.leeroy.agents;
 
 import java.util.Arrays;
-import java.util.List;
 
 /**
- * based on https://www4.stat.ncsu.edu/~jaosborn/research/RISK.pdf
+ * Exact outcome probabilities of risk battles, based on the Markov chain in
+ * https://www4.stat.ncsu.edu/~jaosborn/research/RISK.pdf
+ * A battle is fought until either side has no troops left. In every round the attacker rolls up to 3 dice and the
+ * defender up to 2, the highest dice are compared pairwise and ties go to the defender. The probabilities of the
+ * rounds are enumerated once, the battle tables are then filled by dynamic programming over the troop counts up to
+ * the troop cap (configurable with -Dleeroy.battle.troopCap) and kept in flat arrays. Besides the overall expected
+ * losses, the losses of the attacker in won battles and of the defender in lost ones are tabulated.
  */
 public class BattleSimulator {
 
-    private final static List<? extends List<? extends Number>> smallBattleProbabilities = Arrays.asList(
-            Arrays.asList(0.417, 0.106, 0.027, 0.007, 0.002, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0),
-            Arrays.asList(0.754, 0.363, 0.206, 0.091, 0.049, 0.021, 0.011, 0.005, 0.003, 0.001),
-            Arrays.asList(0.916, 0.656, 0.47, 0.315, 0.206, 0.134, 0.084, 0.054, 0.033, 0.021),
-            Arrays.asList(0.972, 0.785, 0.642, 0.477, 0.359, 0.253, 0.181, 0.123, 0.086, 0.057),
-            Arrays.asList(0.990, 0.890, 0.769, 0.638, 0.506, 0.397, 0.297, 0.224, 0.162, 0.118),
-            Arrays.asList(0.997, 0.934, 0.857, 0.745, 0.638, 0.521, 0.423, 0.329, 0.258, 0.193),
-            Arrays.asList(0.999, 0.967, 0.91, 0.834, 0.736, 0.64, 0.536, 0.446, 0.357, 0.287),
-            Arrays.asList(1.0, 0.98, 0.947, 0.888, 0.818, 0.73, 0.643, 0.547, 0.464, 0.38),
-            Arrays.asList(1.0, 0.99, 0.967, 0.93, 0.873, 0.808, 0.726, 0.646, 0.558, 0.48),
-            Arrays.asList(1.0, 0.994, 0.981, 0.954, 0.916, 0.861, 0.8, 0.724, 0.65, 0.568)
-    );
-
-    /**
-     * Get the probability of the attacking troops winning against the defending troops.
-     * The maths has been taken from https://boardgames.stackexchange.com/questions/3514/how-can-i-estimate-my-chances-to-win-a-risk-battle
+    public static final int TROOP_CAP = Math.max(1, Integer.parseInt(System.getProperty("leeroy.battle.troopCap", "200")));
+
+    private static final int MAX_ATTACKER_DICE = 3;
+    private static final int MAX_DEFENDER_DICE = 2;
+    private static final int DIE_SIDES = 6;
+
+    // [attacker dice][defender dice][attacker casualties] probability of one round
+    private static final double[][][] roundProbabilities = createRoundProbabilities();
+
+    // indexed by attackTroops * (TROOP_CAP + 1) + defendTroops
+    private static final double[] winProbabilities = new double[(TROOP_CAP + 1) * (TROOP_CAP + 1)];
+    private static final double[] expectedAttackerLosses = new double[(TROOP_CAP + 1) * (TROOP_CAP + 1)];
+    private static final double[] expectedDefenderLosses = new double[(TROOP_CAP + 1) * (TROOP_CAP + 1)];
+    // expected losses counted only in the battles the attacker wins (attacker) or loses (defender), i.e. E[losses * 1{outcome}]
+    private static final double[] attackerLossesOnWin = new double[(TROOP_CAP + 1) * (TROOP_CAP + 1)];
+    private static final double[] defenderLossesOnLoss = new double[(TROOP_CAP + 1) * (TROOP_CAP + 1)];
+
+    static {
+        fillBattleTables();
+    }
+
+    private static double[][][] createRoundProbabilities() {
+        double[][][] probabilities = new double[MAX_ATTACKER_DICE + 1][MAX_DEFENDER_DICE + 1][];
+        for (int attackerDice = 1; attackerDice <= MAX_ATTACKER_DICE; attackerDice++) {
+            for (int defenderDice = 1; defenderDice <= MAX_DEFENDER_DICE; defenderDice++) {
+                int comparedDice = Math.min(attackerDice, defenderDice);
+                int[] outcomes = new int[comparedDice + 1];
+                int rolls = (int) Math.pow(DIE_SIDES, attackerDice + defenderDice);
+                for (int roll = 0; roll < rolls; roll++) {
+                    int[] attackerRoll = new int[attackerDice];
+                    int[] defenderRoll = new int[defenderDice];
+                    int remaining = roll;
+                    for (int i = 0; i < attackerDice; i++, remaining /= DIE_SIDES) {
+                        attackerRoll[i] = remaining % DIE_SIDES;
+                    }
+                    for (int i = 0; i < defenderDice; i++, remaining /= DIE_SIDES) {
+                        defenderRoll[i] = remaining % DIE_SIDES;
+                    }
+                    Arrays.sort(attackerRoll);
+                    Arrays.sort(defenderRoll);
+                    int attackerCasualties = 0;
+                    for (int i = 1; i <= comparedDice; i++) {
+                        if (attackerRoll[attackerDice - i] <= defenderRoll[defenderDice - i]) {
+                            attackerCasualties++;
+                        }
+                    }
+                    outcomes[attackerCasualties]++;
+                }
+                probabilities[attackerDice][defenderDice] = new double[comparedDice + 1];
+                for (int attackerCasualties = 0; attackerCasualties <= comparedDice; attackerCasualties++) {
+                    probabilities[attackerDice][defenderDice][attackerCasualties] = outcomes[attackerCasualties] / (double) rolls;
+                }
+            }
+        }
+        return probabilities;
+    }
+
+    private static void fillBattleTables() {
+        // every round removes troops, so the outcomes of smaller battles are always known before they are needed
+        for (int attackTroops = 0; attackTroops <= TROOP_CAP; attackTroops++) {
+            for (int defendTroops = 0; defendTroops <= TROOP_CAP; defendTroops++) {
+                int index = index(attackTroops, defendTroops);
+                if (attackTroops == 0 || defendTroops == 0) {
+                    winProbabilities[index] = defendTroops == 0 && attackTroops > 0 ? 1 : 0;
+                    continue;
+                }
+                int attackerDice = Math.min(attackTroops, MAX_ATTACKER_DICE);
+                int defenderDice = Math.min(defendTroops, MAX_DEFENDER_DICE);
+                double[] round = roundProbabilities[attackerDice][defenderDice];
+                int comparedDice = round.length - 1;
+                for (int attackerCasualties = 0; attackerCasualties <= comparedDice; attackerCasualties++) {
+                    int defenderCasualties = comparedDice - attackerCasualties;
+                    int next = index(attackTroops - attackerCasualties, defendTroops - defenderCasualties);
+                    winProbabilities[index] += round[attackerCasualties] * winProbabilities[next];
+                    expectedAttackerLosses[index] += round[attackerCasualties] * (attackerCasualties + expectedAttackerLosses[next]);
+                    expectedDefenderLosses[index] += round[attackerCasualties] * (defenderCasualties + expectedDefenderLosses[next]);
+                    attackerLossesOnWin[index] += round[attackerCasualties]
+                            * (attackerCasualties * winProbabilities[next] + attackerLossesOnWin[next]);
+                    defenderLossesOnLoss[index] += round[attackerCasualties]
+                            * (defenderCasualties * (1 - winProbabilities[next]) + defenderLossesOnLoss[next]);
+                }
+            }
+        }
+    }
+
+    private static int index(int attackTroops, int defendTroops) {
+        return attackTroops * (TROOP_CAP + 1) + defendTroops;
+    }
+
+    /**
+     * Battles larger than the troop cap are scaled down to it, keeping the ratio of the troops
+     */
+    private static int capIndex(int attackTroops, int defendTroops) {
+        int attack = Math.max(0, attackTroops);
+        int defend = Math.max(0, defendTroops);
+        int larger = Math.max(attack, defend);
+        if (larger > TROOP_CAP) {
+            double scale = TROOP_CAP / (double) larger;
+            attack = attack > 0 ? Math.max(1, (int) Math.round(attack * scale)) : 0;
+            defend = defend > 0 ? Math.max(1, (int) Math.round(defend * scale)) : 0;
+        }
+        return index(attack, defend);
+    }
+
+    private static double scaleToBattle(double cappedValue, int attackTroops, int defendTroops) {
+        int larger = Math.max(attackTroops, defendTroops);
+        return larger > TROOP_CAP ? cappedValue * larger / TROOP_CAP : cappedValue;
+    }
+
+    /**
+     * Get the probability of the attacking troops winning against the defending troops, if the attack is continued
+     * until either side has no troops left.
      *
      * @param attackTroops The number of attacking troops
      * @param defendTroops The number of defending troops
      * @return The probability of winning the attack
      */
     public static double getWinProbability(int attackTroops, int defendTroops) {
-        if (attackTroops < 1 || ((float) defendTroops / (float) attackTroops > 10)) {
-            return 0;
-        } else if (defendTroops < 1 || ((float) attackTroops / (float) defendTroops > 10)) {
-            return 1;
-        }
+        return winProbabilities[capIndex(attackTroops, defendTroops)];
+    }
 
-        if (attackTroops < 11 && defendTroops < 11) {
-            return (double) smallBattleProbabilities.get(attackTroops - 1).get(defendTroops - 1);
+    /**
+     * Get the probabilities of winning for multiple battles at once, e.g. all attacks along a frontier
+     *
+     * @param attackTroops The number of attacking troops per battle
+     * @param defendTroops The number of defending troops per battle (same length as attackTroops)
+     * @return The probability of winning per battle
+     */
+    public static double[] getWinProbabilities(int[] attackTroops, int[] defendTroops) {
+        double[] probabilities = new double[attackTroops.length];
+        for (int i = 0; i < attackTroops.length; i++) {
+            probabilities[i] = winProbabilities[capIndex(attackTroops[i], defendTroops[i])];
         }
+        return probabilities;
+    }
 
-        // stupid heuristic which needs to be revised maybe
-        // based on https://boardgames.stackexchange.com/questions/3514/how-can-i-estimate-my-chances-to-win-a-risk-battle
-        final double expectedLossDef = 1.08;
-        final double expectedLossAtt = 0.922;
-        if ((attackTroops / expectedLossAtt) > (defendTroops / expectedLossDef)) {
-            int targetV = attackTroops == 10 ? 9 : 10;
-            return getWinProbability(targetV, (int) Math.floor(defendTroops - (attackTroops - targetV) / expectedLossAtt * expectedLossDef));
-        }
+    /**
+     * @param attackTroops The number of attacking troops
+     * @param defendTroops The number of defending troops
+     * @return The expected number of troops the attacker loses until either side has no troops left
+     */
+    public static double getExpectedAttackerLosses(int attackTroops, int defendTroops) {
+        return scaleToBattle(expectedAttackerLosses[capIndex(attackTroops, defendTroops)], attackTroops, defendTroops);
+    }
+
+    /**
+     * @param attackTroops The number of attacking troops
+     * @param defendTroops The number of defending troops
+     * @return The expected number of troops the defender loses until either side has no troops left
+     */
+    public static double getExpectedDefenderLosses(int attackTroops, int defendTroops) {
+        return scaleToBattle(expectedDefenderLosses[capIndex(attackTroops, defendTroops)], attackTroops, defendTroops);
+    }
+
+    /**
+     * @param attackTroops The number of attacking troops
+     * @param defendTroops The number of defending troops
+     * @return The expected number of troops the attacker loses in the battles it wins, 0 if it can not win
+     */
+    public static double getExpectedAttackerLossesOnWin(int attackTroops, int defendTroops) {
+        int index = capIndex(attackTroops, defendTroops);
+        double winProbability = winProbabilities[index];
+        return winProbability > 0 ? scaleToBattle(attackerLossesOnWin[index] / winProbability, attackTroops, defendTroops) : 0;
+    }
 
-        int targetV = defendTroops == 10 ? 9 : 10;
-        return getWinProbability((int)Math.floor (attackTroops - (defendTroops - targetV) / expectedLossDef * expectedLossAtt), targetV);
+    /**
+     * @param attackTroops The number of attacking troops
+     * @param defendTroops The number of defending troops
+     * @return The expected number of troops the defender loses in the battles the attacker loses, 0 if the attacker
+     * can not lose
+     */
+    public static double getExpectedDefenderLossesOnLoss(int attackTroops, int defendTroops) {
+        int index = capIndex(attackTroops, defendTroops);
+        double lossProbability = 1 - winProbabilities[index];
+        return lossProbability > 0 ? scaleToBattle(defenderLossesOnLoss[index] / lossProbability, attackTroops, defendTroops) : 0;
     }
 
+    /**
+     * Get the probability of one round of dice ending with the given casualties
+     *
+     * @param attackerDice       The dice of the attacker (1 to 3)
+     * @param defenderDice       The dice of the defender (1 to 2)
+     * @param attackerCasualties The troops the attacker loses, the defender loses the rest of the compared dice
+     * @return The probability of the outcome
+     */
+    public static double getRoundProbability(int attackerDice, int defenderDice, int attackerCasualties) {
+        if (attackerDice < 1 || defenderDice < 1) {
+            return 0;
+        }
+        double[] round = roundProbabilities[Math.min(attackerDice, MAX_ATTACKER_DICE)][Math.min(defenderDice, MAX_DEFENDER_DICE)];
+        return attackerCasualties >= 0 && attackerCasualties < round.length ? round[attackerCasualties] : 0;
+    }
 }
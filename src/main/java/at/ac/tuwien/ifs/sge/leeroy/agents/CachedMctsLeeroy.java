@@ -1,24 +1,43 @@
 package at.ac.tuwien.ifs.sge.leeroy.agents;
 
 import at.ac.tuwien.ifs.sge.engine.Logger;
+import at.ac.tuwien.ifs.sge.game.ActionRecord;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
 import at.ac.tuwien.ifs.sge.leeroy.mcts.ActionNode;
 import at.ac.tuwien.ifs.sge.leeroy.mcts.AttackMctsActionSupplier;
-import at.ac.tuwien.ifs.sge.leeroy.mcts.MctsActionSupplier;
+import at.ac.tuwien.ifs.sge.leeroy.mcts.SearchParallelism;
+import at.ac.tuwien.ifs.sge.leeroy.mcts.TranspositionTable;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.ZobristHash;
 import at.ac.tuwien.ifs.sge.util.Util;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * This agent saves the tree in between actions of the same turn, afterwards it is discarded
  * The steps "reinforcement", "attacking" and "occupying" are implemented by this agent.
+ * While the agent waits for its next action it keeps searching (pondering): during its own turn the subtree of the
+ * action it chose last, so the tree reused for the next action is already grown, and during the turn of the opponent
+ * the opponent's likely replies followed by its own next reinforcement.
  */
 public class CachedMctsLeeroy extends LeeroyMctsAttack {
 
-    private List<ActionNode> simulationSuccessors = new ArrayList<>();
+    // root of the last search and the number of actions played before it, to follow the actions played since
+    private ActionNode searchRoot = null;
+    private int searchRootActionCount = 0;
+    // transpositions are detected during the whole turn, as long as the tree is reused
+    private final TranspositionTable transpositionTable = new TranspositionTable();
+    // visits of the opponent's turn before pondering moves on to our reinforcement after its most likely line
+    private static final int OPPONENT_PONDER_VISITS = 4096;
+
+    // the node of the action chosen last, its subtree is searched while pondering
+    private ActionNode ponderNode = null;
+    private volatile boolean pondering = false;
+    private Thread ponderThread = null;
 
     /**
      * Create a new Risk agent using MCTS operating on one tree per (risk) turn.
@@ -39,7 +58,7 @@ public class CachedMctsLeeroy extends LeeroyMctsAttack {
      */
     @Override
     protected RiskAction reinforce(Risk risk, RiskBoard riskBoard) {
-        return this.performAction(risk, REINFORCE_TIMEOUT_PENALTY);
+        return this.performAction(risk);
     }
 
     /**
@@ -52,7 +71,7 @@ public class CachedMctsLeeroy extends LeeroyMctsAttack {
      */
     @Override
     protected RiskAction attackTerritory(Risk risk, RiskBoard riskBoard) {
-        return this.performAction(risk, ATTACK_TIMEOUT_PENALTY);
+        return this.performAction(risk);
     }
 
     /**
@@ -64,47 +83,217 @@ public class CachedMctsLeeroy extends LeeroyMctsAttack {
      */
     @Override
     protected RiskAction occupyTerritory(Risk risk) {
-        return this.performAction(risk, OCCUPY_TIMEOUT_PENALTY);
+        return this.performAction(risk);
     }
 
     /**
      * Employ MCTS for finding the best action to take.
-     * The tree is cached per round and discarded whenever we detect the enemy has just acted.
+     * The tree is cached per round and discarded once the actions played since the last search leave it.
+     * The time spent searching is decided by the time manager.
      *
-     * @param risk           The risk game
-     * @param timeoutPenalty The penalty for timeout
+     * @param risk The risk game
      * @return The risk action to perform
      */
-    protected RiskAction performAction(Risk risk, int timeoutPenalty) {
-        MctsActionSupplier actionSupplier = new AttackMctsActionSupplier(
-                () -> this.shouldStopComputation(timeoutPenalty));
-        actionSupplier.setRootNode(getRootNode(risk));
+    protected RiskAction performAction(Risk risk) {
+        // the engine should already have stopped pondering, make sure the tree is no longer searched in the background
+        ponderStop();
+        AttackMctsActionSupplier actionSupplier = new AttackMctsActionSupplier(
+                timeManager::shouldStop, MCTS_THREADS, MCTS_PARALLELISM);
+        ActionNode rootNode = getRootNode(risk);
+        if (rootNode == null) {
+            // new tree, the states of the old one will not be reached again
+            transpositionTable.clear();
+            rootNode = new ActionNode(risk.getCurrentPlayer(), null, risk, null);
+        }
+        searchRoot = rootNode;
+        searchRootActionCount = risk.getActionRecords().size();
+        actionSupplier.setRootNode(rootNode);
+        actionSupplier.setTranspositionTable(transpositionTable);
+        actionSupplier.setRemainingTime(timeManager::nanosLeft);
+        actionSupplier.setPreviousTelemetry(lastTelemetry);
+        timeManager.watchLeader(actionSupplier::getLeadingAction);
+        actionSupplier.setCompactTree(MCTS_COMPACT_TREE);
+        actionSupplier.setProgressiveWidening(MCTS_PROGRESSIVE_WIDENING);
+        actionSupplier.setFastRollouts(MCTS_FAST_ROLLOUTS);
+        actionSupplier.setRolloutMode(MCTS_ROLLOUT_MODE);
         ActionNode bestNode = actionSupplier.findBestNode();
+        lastTelemetry = actionSupplier.getTelemetry();
+        log.debug(lastTelemetry);
         if (bestNode != null) {
-            simulationSuccessors = bestNode.getSuccessors();
+            ponderNode = bestNode;
             return bestNode.getAction();
         }
         // mcts stopped before any node was evaluated - mostly caused by unstable opponent agents
-        simulationSuccessors = new ArrayList<>();
+        searchRoot = null;
+        ponderNode = null;
         return Util.selectRandom(risk.getPossibleActions());
     }
 
+    /**
+     * Keep searching on a background thread until pondering is stopped.
+     * During our own turn the subtree of the action chosen last is searched on a shared tree. The outcomes of the
+     * chosen action (e.g. the casualties of an attack) are the successors of that node, so the next call of
+     * performAction continues on the matching, already searched successor.
+     * Once the turn passed to the opponent, its turn is searched from the current state, and afterwards our
+     * reinforcement after the opponent's most likely line (see ponderOpponentTurn).
+     */
+    @Override
+    public void ponderStart() {
+        Risk game = lastMoveGame;
+        RiskAction action = lastMoveAction;
+        ActionNode nodeToPonder = ponderNode;
+        if (ponderThread != null || game == null || action == null) {
+            return;
+        }
+        int player = game.getCurrentPlayer();
+        Runnable ponder;
+        if (nodeToPonder != null && !nodeToPonder.isLeafNode() && action.equals(nodeToPonder.getAction())) {
+            ponder = () -> ponderSubtree(nodeToPonder);
+        } else {
+            ponder = () -> ponderOpponentTurn(player, (Risk) game.doAction(action));
+        }
+        pondering = true;
+        ponderThread = new Thread(ponder, "leeroy-ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+
+    private void ponderSubtree(ActionNode nodeToPonder) {
+        search(nodeToPonder, transpositionTable, () -> !this.pondering);
+    }
+
+    /**
+     * Search the opponent's reinforcements and attacks with our own search, until the opponent's tree has been visited
+     * OPPONENT_PONDER_VISITS times. Then the most likely line of the opponent (most visited decisions, most probable
+     * dice) is followed to the start of our next turn, and our reinforcement is searched from there.
+     * The root of our reinforcement tree is registered in the transposition table, so performAction continues on it
+     * if the opponent played that line. Its key includes the possible actions, as the predicted cards and
+     * reinforcements can differ from the actual ones although the board is the same.
+     *
+     * @param player The player of the agent
+     * @param game   The game after our last action
+     */
+    private void ponderOpponentTurn(int player, Risk game) {
+        int opponent = game.getCurrentPlayer();
+        if (game.isGameOver() || opponent < 0 || opponent == player || !game.getBoard().isReinforcementPhase()) {
+            // our own turn goes on (e.g. after a forced move), it is searched once we are asked for the action
+            return;
+        }
+        // the opponent's states never become our roots, so they are kept out of our transposition table
+        ActionNode opponentRoot = new ActionNode(opponent, null, game, null);
+        search(opponentRoot, new TranspositionTable(),
+                () -> !this.pondering || opponentRoot.getVisitCount() >= OPPONENT_PONDER_VISITS);
+
+        Risk predictedGame = followMostLikelyLine(opponentRoot);
+        if (!this.pondering || predictedGame == null || predictedGame.isGameOver()
+                || predictedGame.getCurrentPlayer() != player || !predictedGame.getBoard().isReinforcementPhase()) {
+            return;
+        }
+        ActionNode reinforcementRoot = new ActionNode(player, null, predictedGame, null);
+        transpositionTable.putIfAbsent(getRootKey(predictedGame), reinforcementRoot);
+        search(reinforcementRoot, transpositionTable, () -> !this.pondering);
+    }
+
+    /**
+     * Follow the most visited decisions and the most probable dice outcomes of a searched turn to its end, and end
+     * the fortification phase following it
+     *
+     * @param root The root of the searched turn
+     * @return The game after the turn, null if the search did not reach the end of the turn
+     */
+    private static Risk followMostLikelyLine(ActionNode root) {
+        ActionNode node = root;
+        while (!node.isLeafNode()) {
+            List<ActionNode> successors = node.getSuccessors();
+            if (successors == null || successors.isEmpty()) {
+                return null;
+            }
+            node = node.isChanceNode() ?
+                    Collections.max(successors, Comparator.comparingDouble(ActionNode::getProbability)) :
+                    Collections.max(successors, Comparator.comparingInt(ActionNode::getVisitCount));
+        }
+        Risk game = node.getGame();
+        // the fortification of the opponent is not searched
+        while (!game.isGameOver() && game.getBoard().isFortifyPhase() && game.isValidAction(RiskAction.endPhase())) {
+            game = (Risk) game.doAction(RiskAction.endPhase());
+        }
+        return game;
+    }
+
+    private void search(ActionNode root, TranspositionTable transpositions, BooleanSupplier shouldStop) {
+        AttackMctsActionSupplier actionSupplier = new AttackMctsActionSupplier(shouldStop, MCTS_THREADS, SearchParallelism.TREE);
+        actionSupplier.setRootNode(root);
+        actionSupplier.setTranspositionTable(transpositions);
+        actionSupplier.setProgressiveWidening(MCTS_PROGRESSIVE_WIDENING);
+        actionSupplier.setFastRollouts(MCTS_FAST_ROLLOUTS);
+        actionSupplier.setRolloutMode(MCTS_ROLLOUT_MODE);
+        actionSupplier.findBestNode();
+        log.debug("Pondered " + actionSupplier.getTelemetry());
+    }
+
+    /**
+     * Stop pondering and wait for the background search to finish, so the tree is not modified concurrently anymore
+     */
+    @Override
+    public void ponderStop() {
+        pondering = false;
+        if (ponderThread == null) {
+            return;
+        }
+        try {
+            ponderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ponderThread = null;
+    }
+
     /**
      * choose root node for mcts
-     * tries to reuse successors from previous simulation run(s), if none exist creates new root
+     * Follows all actions played since the last search (our own, casualties, forced moves) down the cached tree.
+     * If they leave the tree, a node which reached the same game state is looked up in the transposition table (this is
+     * also how the reinforcement pondered during the opponent's turn is found).
+     * The node found is made the root of the tree, keeping its subtree and statistics.
      *
-     * @return The new root node for performing MCTS on.
+     * @param game The current game
+     * @return The new root node for performing MCTS on, null if no part of the cached tree can be reused
      */
     protected ActionNode getRootNode(Risk game) {
-        RiskAction lastAction = game.getPreviousAction();
-        ActionNode defaultRoot = new ActionNode(game.getCurrentPlayer(), null, game, null);
-        if (lastAction == null || simulationSuccessors == null || simulationSuccessors.isEmpty()) {
-            return defaultRoot;
+        long stateHash = getRootKey(game);
+        ActionNode node = searchRoot == null ? null : followActionRecords(game.getActionRecords());
+        if (node == null || getRootKey(node.getGame()) != stateHash) {
+            node = transpositionTable.get(stateHash);
+        }
+        if (node != null) {
+            node.reroot(game);
+        }
+        return node;
+    }
+
+    /**
+     * @param game The game
+     * @return The key a root node for the game is matched by: in the reinforcement phase the successors are the
+     * trade-ins and reinforcements, so they have to be possible in the actual game as well
+     */
+    private static long getRootKey(Risk game) {
+        RiskBoard board = game.getBoard();
+        return board.isReinforcementPhase() ? ZobristHash.ofWithPossibleActions(game, board) : ZobristHash.of(game, board);
+    }
+
+    private ActionNode followActionRecords(List<ActionRecord<RiskAction>> actionRecords) {
+        if (actionRecords.size() <= searchRootActionCount) {
+            return null;
+        }
+        ActionNode node = searchRoot;
+        for (int i = searchRootActionCount; i < actionRecords.size() && node != null; i++) {
+            RiskAction playedAction = actionRecords.get(i).getAction();
+            List<ActionNode> successors = node.getSuccessors();
+            node = successors == null ? null : successors
+                    .stream()
+                    .filter(successor -> successor.getAction().equals(playedAction))
+                    .findFirst()
+                    .orElse(null);
         }
-        return simulationSuccessors
-                .stream()
-                .filter(simNode -> simNode.getAction().equals(lastAction))
-                .findFirst()
-                .orElse(defaultRoot);
+        return node;
     }
 }
@@ -3,10 +3,12 @@ package at.ac.tuwien.ifs.sge.leeroy.agents;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.FrontlineDistanceField;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.TerritorySet;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * This class generates fortification actions
@@ -14,46 +16,44 @@ import java.util.stream.Collectors;
 public class FortificationActionSupplier {
 
     /**
-     * recursively checks if fortification can be done - returns all possible fortification action for frontline territories
+     * checks level by level if fortification can be done - returns all possible fortification action for frontline territories
      * i.e if there are territories T1 neighboring frontline territories T0, all actions T1->T0 are returned
      * if T1->T0 is empty, T2-> T1 is returned and so on
+     * The level of a territory is its distance to the frontline in the FrontlineDistanceField of the board.
      *
      * @param risk  The game
      * @param board The game board (separately so it can be cached)
      * @return The fortification actions which should be considered
      */
     public static Set<RiskAction> createActions(Risk risk, RiskBoard board) {
-        final Set<Integer> frontlineTerritoryIds = board
-                .getTerritoriesOccupiedByPlayer(risk.getCurrentPlayer())
-                .stream()
-                .filter(tId -> board.neighboringEnemyTerritories(tId).size() > 0)
-                .collect(Collectors.toSet());
+        BoardTopology topology = BoardTopology.of(board);
+        FrontlineDistanceField distanceField = FrontlineDistanceField.of(board, topology, risk.getCurrentPlayer());
+        TerritorySet ownTerritoryIds = distanceField.getOwnTerritories();
 
-        return FortificationActionSupplier.createActions(board, frontlineTerritoryIds, new HashSet<>(frontlineTerritoryIds));
-    }
-
-    private static Set<RiskAction> createActions(RiskBoard board, Set<Integer> neighborTerritoryIds, Set<Integer> checkedTerritoryIds) {
-        Set<RiskAction> levelActions = new HashSet<>();
-        Set<Integer> nextLevelTerritoryIds = new HashSet<>();
-        for (Integer tId : neighborTerritoryIds) {
-            final Set<Integer> subseqTerritorySet = board
-                    .neighboringFriendlyTerritories(tId)
-                    .stream()
-                    .filter(ntId -> !checkedTerritoryIds.contains(ntId))
-                    .collect(Collectors.toSet());
-
-            levelActions.addAll(subseqTerritorySet
-                    .stream()
-                    .map(stId -> RiskAction.fortify(stId, tId, board.getMobileTroops(stId)))
-                    .filter(action -> action.troops() > 0)
-                    .collect(Collectors.toSet()));
-            nextLevelTerritoryIds.addAll(subseqTerritorySet);
+        // the lowest level with troops to move towards the frontline
+        int sourceLevel = FrontlineDistanceField.UNREACHABLE;
+        for (int tId = ownTerritoryIds.next(0); tId >= 0; tId = ownTerritoryIds.next(tId + 1)) {
+            int distance = distanceField.getDistance(tId);
+            if (distance > 0 && distance < sourceLevel && board.getMobileTroops(tId) > 0) {
+                sourceLevel = distance;
+            }
         }
-        if (! levelActions.isEmpty() || nextLevelTerritoryIds.isEmpty()) {
-            // some found on level or last level (i.e. no fortification possible)
+        Set<RiskAction> levelActions = new HashSet<>();
+        if (sourceLevel == FrontlineDistanceField.UNREACHABLE) {
             return levelActions;
         }
-        checkedTerritoryIds.addAll(nextLevelTerritoryIds);
-        return FortificationActionSupplier.createActions(board, nextLevelTerritoryIds, checkedTerritoryIds);
+        int[] neighborIds = topology.getNeighborIds();
+        for (int stId = ownTerritoryIds.next(0); stId >= 0; stId = ownTerritoryIds.next(stId + 1)) {
+            int troops = board.getMobileTroops(stId);
+            if (distanceField.getDistance(stId) != sourceLevel || troops <= 0) {
+                continue;
+            }
+            for (int i = topology.getNeighborsStart(stId); i < topology.getNeighborsEnd(stId); i++) {
+                if (distanceField.getDistance(neighborIds[i]) == sourceLevel - 1) {
+                    levelActions.add(RiskAction.fortify(stId, neighborIds[i], troops));
+                }
+            }
+        }
+        return levelActions;
     }
 }
@@ -1,243 +1,82 @@
 package at.ac.tuwien.ifs.sge.leeroy.agents;
 
-import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
-import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
-import org.apache.commons.lang3.NotImplementedException;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.PlacementTracker;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.TerritorySet;
 
 import java.util.*;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * A class containing utility functions for dealing w/ the game
  */
 public class GameUtils {
-    private static Map<Integer, List<Integer>> continentTerritories;
 
     /**
-     * Return all territories on the board which are not occupied
-     *
-     * @param board The board to check
-     * @return All unoccupied territories in a map (territoryId, territory)
-     */
-    public static List<Map.Entry<Integer, RiskTerritory>> getUnoccupiedEntries(RiskBoard board) {
-        return board
-                .getTerritories()
-                .entrySet()
-                .stream()
-                .filter(integerRiskTerritoryEntry -> integerRiskTerritoryEntry.getValue().getOccupantPlayerId() == -1)
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Return all territories on the board which are occupied
-     *
-     * @param board The board to check
-     * @return All occupied territories in a map (territoryId, territory)
-     */
-    public static List<Map.Entry<Integer, RiskTerritory>> getOccupiedEntries(RiskBoard board) {
-        return board
-                .getTerritories()
-                .entrySet()
-                .stream()
-                .filter(integerRiskTerritoryEntry -> integerRiskTerritoryEntry.getValue().getOccupantPlayerId() != -1)
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Generating function for a function evaluating a board still in the initial placement phase
-     * It can be used to generate the evaluation function near the top of the call tree, when the game and the board are
+     * Generating function for a function playing out the initial placement phase from a node and evaluating the
+     * resulting board.
+     * It can be used to generate the play out function near the top of the call tree, when the game and the board are
      * known, which is then passed down, and called for singular nodes later on.
+     * The remaining territories are occupied in turns, where each player picks the territory creating the fewest areas
+     * for it. The occupation is tracked incrementally in a PlacementTracker, so no nodes are created for the play out.
+     * The played out board is evaluated for every player, so the search can credit each placement to the player who
+     * made it.
      *
-     * @param risk  The risk game (Still in the initial placement phase)
-     * @param board The board (passed separately so it can be cached)
-     * @return A function taking a node, returning an evaluation score
+     * @param board The board (still in the initial placement phase)
+     * @return A function taking a node, returning the evaluation scores of the played out board indexed by player id
      */
-    public static Function<Node, Integer> partialInitialEvaluationFunction(Risk risk, RiskBoard board) {
-        return (node) -> evaluateInitialBoard(node, risk, board);
-    }
-
-    private static Integer evaluateInitialBoard(Node node, Risk risk, RiskBoard board) {
-        if (node.getSuccessors().isEmpty()) {
-            int playerId = risk.getCurrentPlayer();
-            Set<Integer> territoriesOccupiedByPlayer = getTerritoriesOccupiedByPlayer(playerId, ((InitialPlacementNode) node).getOccupiedTerritories());
-            Set<Set<Integer>> areas = getAreas(territoriesOccupiedByPlayer, board);
-            int totalNumberOfNeighbors = getNeighbors(territoriesOccupiedByPlayer, board).size();
-            int numberOfContinentsOccupied = getContinentsOccupied(territoriesOccupiedByPlayer, board).size();
-            int totalContinentBonus = getTotalContinentBonus(playerId, board);
-            int totalContinentMalus = getTotalContinentMalus(playerId, board);
-            return -1 * areas.size()
-                    * totalNumberOfNeighbors
-                    * numberOfContinentsOccupied
-                    / (totalContinentBonus + 1)
-                    * totalContinentMalus;
-        } else {
-            throw new NotImplementedException();
+    public static Function<Node, int[]> partialInitialPlayOutFunction(RiskBoard board) {
+        BoardTopology topology = BoardTopology.of(board);
+        return (node) -> playOutInitialPlacement((InitialPlacementNode) node, topology);
+    }
+
+    private static int[] playOutInitialPlacement(InitialPlacementNode node, BoardTopology topology) {
+        PlacementTracker tracker = PlacementTracker.of(topology, node.getOccupiedTerritories());
+        TerritorySet unoccupied = tracker.getUnoccupied();
+        int player = node.getPlayer();
+        while (!unoccupied.isEmpty()) {
+            player = (player + 1) % tracker.getNumberOfPlayers();
+            tracker.claim(selectInitialTerritory(tracker, player), player);
         }
-    }
-
-    private static Set<Integer> getTerritoriesOccupiedByPlayer(int playerId, List<Map.Entry<Integer, RiskTerritory>> territories) {
-        return territories
-                .stream()
-                .filter(integerRiskTerritoryEntry -> integerRiskTerritoryEntry.getValue().getOccupantPlayerId() == playerId)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
-    }
-
-    private static Set<Set<Integer>> getAreas(Set<Integer> territoriesOccupiedByPlayer, RiskBoard board) {
-        Set<Set<Integer>> areas = new HashSet<>();
-        Set<Integer> visitedNodes = new HashSet<>();
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            if (!visitedNodes.contains(territory)) {
-                Set<Integer> area = new HashSet<>();
-                area.add(territory);
-                Queue<Integer> neighbours = new LinkedList<>(board.neighboringTerritories(territory));
-                Set<Integer> visitedNeighbors = new HashSet<>();
-                while (!neighbours.isEmpty()) {
-                    var neighbour = neighbours.remove();
-                    if (!visitedNeighbors.contains(neighbour)) {
-                        if (territoriesOccupiedByPlayer.contains(neighbour)) {
-                            area.add(neighbour);
-                            neighbours.addAll(board.neighboringTerritories(neighbour));
-                        }
-                        visitedNeighbors.add(neighbour);
-                    }
-                }
-                areas.add(area);
-                visitedNodes.add(territory);
-            }
-        }
-        return areas;
-    }
-
-    private static Set<Integer> getNeighbors(Set<Integer> territoriesOccupiedByPlayer, RiskBoard riskBoard) {
-        Set<Integer> neighbors = new HashSet<>();
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            neighbors.addAll(riskBoard.neighboringTerritories(territory));
+        int[] scores = new int[tracker.getNumberOfPlayers()];
+        for (int playerId = 0; playerId < scores.length; playerId++) {
+            scores[playerId] = evaluateInitialBoard(tracker, playerId);
         }
-        return neighbors;
-    }
-
-    /**
-     * A function returning the territories on the board which are occupied by enemies and
-     * neighbour to a territory belonging to the player
-     *
-     * @param territoriesOccupiedByPlayer A set of ids of territories occupied by the player
-     * @param riskBoard                   The risk board
-     * @return A set of ids of territories occupied by the enemy and neighbour to player's territories.
-     */
-    public static Set<Integer> getEnemyNeighbors(Set<Integer> territoriesOccupiedByPlayer, RiskBoard riskBoard) {
-        Set<Integer> neighbors = new HashSet<>();
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            neighbors.addAll(riskBoard.neighboringEnemyTerritories(territory));
-        }
-        return neighbors;
-    }
-
-    /**
-     * A function to get the number of troops belonging to the player which are not in territories adjacent to
-     * enemy territories
-     *
-     * @param territoriesOccupiedByPlayer A set of ids of territories occupied by the player
-     * @param riskBoard                   The risk board
-     * @return The amount of troops belonging to the player which are not in territories adjacent to enemy territories
-     */
-    public static int getUnusedTroops(Set<Integer> territoriesOccupiedByPlayer, RiskBoard riskBoard) {
-        int unusedTroopSum = 0;
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            if (riskBoard.neighboringEnemyTerritories(territory).isEmpty()) {
-                unusedTroopSum += riskBoard.getMobileTroops(territory);
+        return scores;
+    }
+
+    private static int selectInitialTerritory(PlacementTracker tracker, int player) {
+        TerritorySet unoccupied = tracker.getUnoccupied();
+        int bestTerritory = -1;
+        int fewestAreas = Integer.MAX_VALUE;
+        for (int territory = unoccupied.next(0); territory >= 0; territory = unoccupied.next(territory + 1)) {
+            int areas = tracker.getAreasAfterClaim(territory, player);
+            if (areas < fewestAreas) {
+                fewestAreas = areas;
+                bestTerritory = territory;
             }
         }
-        return unusedTroopSum;
-    }
-
-    /**
-     * Retrieve the difference between the players troops on the frontline and enemy troops on the frontline.
-     * If it is positive, it means that the player has more troops on the frontline, if it is negative the enemy
-     * has more troops on the frontline.
-     *
-     * @param territoriesOccupiedByPlayer A set of ids of the territories occupied by the player
-     * @param riskBoard                   The risk board
-     * @return The difference of players troop on the frontline and enemy troops on the frontline.
-     */
-    public static int getFrontlineMargin(Set<Integer> territoriesOccupiedByPlayer, RiskBoard riskBoard) {
-        Set<Integer> neighbors = new HashSet<>();
-        int margin = 0;
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            Set<Integer> territoryNeighbors = riskBoard.neighboringEnemyTerritories(territory);
-            if (territoryNeighbors.isEmpty()) {
-                continue;
-            }
-            margin += riskBoard.getTerritoryTroops(territory); // add troops of player's territory
-            for (Integer enemyTerritory : territoryNeighbors) {
-                if (neighbors.contains(enemyTerritory)) {
-                    continue;
-                }
-                margin -= riskBoard.getTerritoryTroops(enemyTerritory); // subtract troops of new enemy's territory
-                neighbors.add(enemyTerritory);
-            }
-        }
-        return margin;
-    }
-
-    private static Set<Integer> getContinentsOccupied(Set<Integer> territoriesOccupiedByPlayer, RiskBoard riskBoard) {
-        Set<Integer> continents = new HashSet<>();
-        for (Integer territory : territoriesOccupiedByPlayer) {
-            continents.add(riskBoard.getTerritories().get(territory).getContinentId());
-        }
-        return continents;
-    }
-
-    private static int getTotalContinentBonus(int playerId, RiskBoard riskBoard) {
-        return getContinentBonusForPlayer(playerId, riskBoard);
-    }
-
-    /**
-     * Get the total troops the players enemies will receive for owning a complete continent.
-     *
-     * @param playerId  The id of the player
-     * @param riskBoard The risk board
-     * @return How many troops the players enemy will receive as continent bonuses
-     */
-    public static int getTotalContinentMalus(int playerId, RiskBoard riskBoard) {
-        int totalMalus = 0;
-        for (int i = 0; i < riskBoard.getNumberOfPlayers(); i++) {
-            if (i != playerId) {
-                totalMalus += getContinentBonusForPlayer(i, riskBoard);
+        return bestTerritory;
+    }
+
+    private static int evaluateInitialBoard(PlacementTracker tracker, int playerId) {
+        int areas = tracker.getAreas(playerId);
+        int totalNumberOfNeighbors = tracker.getNeighborCount(playerId);
+        int numberOfContinentsOccupied = tracker.getContinentsTouched(playerId);
+        int totalContinentBonus = tracker.getContinentBonus(playerId);
+        int totalContinentMalus = 0;
+        for (int enemy = 0; enemy < tracker.getNumberOfPlayers(); enemy++) {
+            if (enemy != playerId) {
+                totalContinentMalus += tracker.getContinentBonus(enemy);
             }
         }
-        return totalMalus;
-    }
-
-    /**
-     * Get the total amount of troops the player will receive for occupying full continents.
-     *
-     * @param player    The id of the player
-     * @param riskBoard The risk board
-     * @return How many troops the players will receive as continent bonus
-     */
-    public static int getContinentBonusForPlayer(int player, RiskBoard riskBoard) {
-        if (continentTerritories == null) {
-            continentTerritories = getContinentTerritories(riskBoard);
-        }
-        var territoriesOccupiedByPlayer = riskBoard.getTerritoriesOccupiedByPlayer(player);
-        return continentTerritories.entrySet()
-                .stream()
-                .filter(continentTerritories -> territoriesOccupiedByPlayer.containsAll(continentTerritories.getValue()))
-                .map(continentTerritories -> riskBoard.getContinentBonus(continentTerritories.getKey()))
-                .reduce(Integer::sum)
-                .orElse(0);
-    }
-
-    private static Map<Integer, List<Integer>> getContinentTerritories(RiskBoard riskBoard) {
-        return riskBoard.getTerritories()
-                .entrySet()
-                .stream()
-                .collect(Collectors.groupingBy(pair -> pair.getValue().getContinentId(),
-                        Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+        return -1 * areas
+                * totalNumberOfNeighbors
+                * numberOfContinentsOccupied
+                / (totalContinentBonus + 1)
+                * totalContinentMalus;
     }
 
     /**
@@ -250,13 +89,23 @@ public class GameUtils {
      * @return A function taking a node, returning the estimated best successor node (the one creating the fewest areas)
      */
     public static Function<Node, Node> partialInitialExpansionFunction(RiskBoard riskBoard) {
-        return (node) -> initialExpansionFunction(node, riskBoard);
-    }
-
-    private static Node initialExpansionFunction(Node node, RiskBoard riskBoard) {
-        return Collections.min(node.getSuccessors(),
-                Comparator.comparingInt(nodeToEvaluate ->
-                        getAreas(riskBoard.getTerritoriesOccupiedByPlayer(nodeToEvaluate.getPlayer()), riskBoard).size()));
+        BoardTopology topology = BoardTopology.of(riskBoard);
+        return (node) -> initialExpansionFunction((InitialPlacementNode) node, topology);
+    }
+
+    private static Node initialExpansionFunction(InitialPlacementNode node, BoardTopology topology) {
+        PlacementTracker tracker = PlacementTracker.of(topology, node.getOccupiedTerritories());
+        List<Node> successors = node.getSuccessors();
+        int bestSuccessor = 0;
+        int fewestAreas = Integer.MAX_VALUE;
+        for (int i = 0; i < successors.size(); i++) {
+            int areas = tracker.getAreasAfterClaim(node.getSuccessorTerritory(i), successors.get(i).getPlayer());
+            if (areas < fewestAreas) {
+                fewestAreas = areas;
+                bestSuccessor = i;
+            }
+        }
+        return successors.get(bestSuccessor);
     }
 
     /**
@@ -4,15 +4,14 @@ import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
 import at.ac.tuwien.ifs.sge.util.Util;
-import org.javatuples.Pair;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * A class containing code to select the best territory to reinforce heuristically.
@@ -23,6 +22,7 @@ import java.util.stream.Stream;
 public class HeuristicReinforce {
     private static final double TROOPS_RELATION_TERRITORIES_THRESHOLD = 0.8;
     private static final double TROOPS_RELATION_CONTINENT_THRESHOLD = 0.9;
+    private static final double DOMINATED_CONTINENT_SHARE = 0.99;
 
     private static final Logger logger = Logger.getLogger(HeuristicReinforce.class.getName());
 
@@ -35,85 +35,122 @@ public class HeuristicReinforce {
      * @return A risk action for reinforcing the territory deemed most advantageous
      */
     public static RiskAction reinforce(int playerNumber, Risk game, RiskBoard board) {
-        return reinforce(playerNumber, board, game.getPossibleActions(), board.getTerritories());
+        Set<RiskAction> possibleActions = game.getPossibleActions();
+        List<RiskAction> bestActions = rankReinforcements(playerNumber, board, BoardTopology.of(board), possibleActions, 1);
+        if (bestActions.isEmpty()) {
+            logger.info("Could not get reinforcement through conventional heuristic");
+            return Util.selectRandom(possibleActions);
+        }
+        return bestActions.get(0);
     }
 
     /**
-     * Get a risk action to reinforce the territory deemed best by the algorithm
-     * This method allows choosing the possible actions and territories externally, so the player can restrict the
-     * heuristic themselves.
-     * Note that the actions and territories have to be reduced in tandem for the algorithm to work as intended.
+     * Rank the territories the player can reinforce and get the actions for the best ones.
+     * The continents are ranked by how close the player's share of the troops on them is to the continent threshold
+     * (continents the player already dominates come last), the territories of a continent by how close their troops
+     * are to the territory threshold compared to the neighbouring enemy troops. Only territories next to an enemy
+     * are reinforced, each one with the most troops possible.
+     * Unlike the original heuristic, which only looked at the best continent and fell back to a random reinforcement
+     * if none of its territories could be reinforced next to an enemy, the ranking then continues with the territories
+     * of the next continents. This is deliberate, a random reinforcement is a poor candidate for the search.
+     * All candidates are scored in one pass over the territories, with the possible actions indexed per territory
+     * beforehand.
      *
      * @param playerNumber    The acting player
      * @param board           The risk board (separate so it can be cached)
-     * @param possibleActions The actions which could be taken (separate so they can be reduced externally)
-     * @param territories     All the territories of the game (separate so they can be reduced externally)
-     * @return A risk action for reinforcing the territory deemed most advantageous
+     * @param topology        The topology of the board
+     * @param possibleActions The actions which could be taken
+     * @param k               The maximum number of actions to return
+     * @return The reinforcement actions of the at most k best territories, the best one first
      */
-    public static RiskAction reinforce(int playerNumber, RiskBoard board, Set<RiskAction> possibleActions, Map<Integer, RiskTerritory> territories) {
-        var playerUnitsOnContinent = territories
-                .values()
-                .stream()
-                .filter(riskTerritory -> riskTerritory.getOccupantPlayerId() == playerNumber)
-                .collect(Collectors.groupingBy(RiskTerritory::getContinentId,
-                        Collectors.summingInt(RiskTerritory::getTroops)));
-
-        var totalUnitsOnContinent = territories
-                .values()
-                .stream()
-                .filter(continent -> playerUnitsOnContinent.containsKey(continent.getContinentId()))
-                .collect(Collectors.groupingBy(RiskTerritory::getContinentId,
-                        Collectors.summingInt(RiskTerritory::getTroops)));
+    public static List<RiskAction> rankReinforcements(int playerNumber, RiskBoard board, BoardTopology topology,
+                                                      Set<RiskAction> possibleActions, int k) {
+        Map<Integer, RiskTerritory> territories = board.getTerritories();
+        int[] troopsToReinforce = new int[topology.getTerritoryIdBound()];
+        for (RiskAction action : possibleActions) {
+            if (GameUtils.isReinforcementAction(action) && action.reinforcedId() < troopsToReinforce.length) {
+                troopsToReinforce[action.reinforcedId()] = Math.max(troopsToReinforce[action.reinforcedId()], action.troops());
+            }
+        }
+        double[] continentScores = getContinentScores(playerNumber, topology, territories);
 
+        int[] bestTerritories = new int[Math.max(0, k)];
+        double[] bestContinentScores = new double[bestTerritories.length];
+        double[] bestTerritoryScores = new double[bestTerritories.length];
+        int found = 0;
+        int[] neighborIds = topology.getNeighborIds();
+        for (Map.Entry<Integer, RiskTerritory> territory : territories.entrySet()) {
+            int territoryId = territory.getKey();
+            if (troopsToReinforce[territoryId] == 0) {
+                continue;
+            }
+            int enemyTroops = 0;
+            boolean enemyNeighbor = false;
+            for (int i = topology.getNeighborsStart(territoryId); i < topology.getNeighborsEnd(territoryId); i++) {
+                RiskTerritory neighbor = territories.get(neighborIds[i]);
+                if (neighbor.getOccupantPlayerId() != playerNumber) {
+                    enemyNeighbor = true;
+                    enemyTroops += neighbor.getTroops();
+                }
+            }
+            if (!enemyNeighbor) {
+                continue;
+            }
+            double continentScore = continentScores[territory.getValue().getContinentId()];
+            double troops = territory.getValue().getTroops();
+            double territoryScore = Math.abs(TROOPS_RELATION_TERRITORIES_THRESHOLD - troops / (enemyTroops + troops));
 
-        var continentEstimatedBest = Stream
-                .concat(playerUnitsOnContinent.entrySet().stream(),
-                        totalUnitsOnContinent.entrySet().stream())
-                .collect(Collectors.toMap(Map.Entry::getKey,
-                        playerTroopsOnContinent -> (double) playerTroopsOnContinent.getValue(),
-                        (playerTroopsOnContinent, allTroopsOnContinent) -> playerTroopsOnContinent / allTroopsOnContinent))
-                .entrySet()
-                .stream()
-                .filter(continent -> continent.getValue() < 0.99)
-                .map(integerDoubleEntry -> new Pair<>(integerDoubleEntry.getKey(),
-                        Math.abs(TROOPS_RELATION_CONTINENT_THRESHOLD - integerDoubleEntry.getValue())))
-                .min(Comparator.comparingDouble(Pair::getValue1))
-                .map(Pair::getValue0);
+            // insert into the k best territories found so far
+            int position = found;
+            while (position > 0 && isBetter(continentScore, territoryScore, bestContinentScores[position - 1], bestTerritoryScores[position - 1])) {
+                position--;
+            }
+            if (position >= bestTerritories.length) {
+                continue;
+            }
+            int moved = Math.min(found, bestTerritories.length - 1) - position;
+            System.arraycopy(bestTerritories, position, bestTerritories, position + 1, moved);
+            System.arraycopy(bestContinentScores, position, bestContinentScores, position + 1, moved);
+            System.arraycopy(bestTerritoryScores, position, bestTerritoryScores, position + 1, moved);
+            bestTerritories[position] = territoryId;
+            bestContinentScores[position] = continentScore;
+            bestTerritoryScores[position] = territoryScore;
+            found = Math.min(found + 1, bestTerritories.length);
+        }
 
-        return territories
-                .entrySet()
-                .stream()
-                //If there is a clean cut between continent ownerships, we do not find a preferred continent, so we have to extend the search to the full board
-                .filter(integerRiskTerritoryEntry -> continentEstimatedBest.map(continentId -> integerRiskTerritoryEntry.getValue().getContinentId() == continentId).orElse(true))
-                .filter(riskTerritory -> possibleActions.stream().anyMatch(action -> action.reinforcedId() == riskTerritory.getKey()))
-                .filter(riskTerritory -> board.neighboringEnemyTerritories(riskTerritory.getKey()).size() > 0)
-                .map(riskTerritory -> board.neighboringEnemyTerritories(riskTerritory.getKey())
-                        .stream()
-                        .map(board::getTerritoryTroops)
-                        .reduce(Integer::sum)
-                        .map(Integer::doubleValue)
-                        .map(noEnemyTroops -> new Pair<>(riskTerritory.getKey(),
-                                riskTerritory.getValue().getTroops()
-                                        / (noEnemyTroops + riskTerritory.getValue().getTroops())))
-                        .orElseThrow())
-                .map(riskTerritory -> new Pair<>(riskTerritory.getValue0(),
-                        Math.abs(TROOPS_RELATION_TERRITORIES_THRESHOLD - riskTerritory.getValue1())))
-                .min(Comparator.comparingDouble(Pair::getValue1))
-                .map(territory -> RiskAction.reinforce(territory.getValue0(),
-                        getTroopsToReinforce(territory.getValue0(), possibleActions)))
-                .orElseGet(() -> {
-                    logger.info("Could not get reinforcement through conventional heuristic");
-                    return Util.selectRandom(possibleActions);
-                });
+        List<RiskAction> actions = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            actions.add(RiskAction.reinforce(bestTerritories[i], troopsToReinforce[bestTerritories[i]]));
+        }
+        return actions;
+    }
 
+    private static boolean isBetter(double continentScore, double territoryScore, double otherContinentScore, double otherTerritoryScore) {
+        return continentScore < otherContinentScore || (continentScore == otherContinentScore && territoryScore < otherTerritoryScore);
     }
 
-    private static int getTroopsToReinforce(Integer key, Set<RiskAction> possibleActions) {
-        return possibleActions
-                .stream()
-                .filter(riskAction -> riskAction.reinforcedId() == key)
-                .map(RiskAction::troops)
-                .max(Integer::compareTo)
-                .orElseThrow();
+    /**
+     * @return Per continent the distance of the player's share of the troops on it to the continent threshold, the
+     * continents without troops of the player or already dominated by the player have an infinite distance
+     */
+    private static double[] getContinentScores(int playerNumber, BoardTopology topology, Map<Integer, RiskTerritory> territories) {
+        double[] continentScores = new double[topology.getContinentCount()];
+        for (int continent = 0; continent < continentScores.length; continent++) {
+            int playerTroops = 0;
+            int totalTroops = 0;
+            boolean occupiedByPlayer = false;
+            for (int territoryId : topology.getContinentTerritories(continent)) {
+                RiskTerritory territory = territories.get(territoryId);
+                totalTroops += territory.getTroops();
+                if (territory.getOccupantPlayerId() == playerNumber) {
+                    occupiedByPlayer = true;
+                    playerTroops += territory.getTroops();
+                }
+            }
+            double share = totalTroops > 0 ? playerTroops / (double) totalTroops : 0;
+            continentScores[continent] = occupiedByPlayer && share < DOMINATED_CONTINENT_SHARE ?
+                    Math.abs(TROOPS_RELATION_CONTINENT_THRESHOLD - share) : Double.POSITIVE_INFINITY;
+        }
+        return continentScores;
     }
 }
@@ -1,26 +1,180 @@
 package at.ac.tuwien.ifs.sge.leeroy.agents;
 
-import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.TerritorySet;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.ZobristHash;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 import java.util.*;
 
 /**
  * A node containing the information for the "initial placement" MCTS
+ * The occupation of the board is stored as one territory bitset per player (and one of the unoccupied territories),
+ * a successor only copies these few words and adds the territory it occupies.
+ * Every node also carries the Zobrist hash of its occupation. Which territories the players hold at the end does not
+ * depend on the order of the placements, so nodes with the same occupation (and the same player to move) are shared
+ * via the transpositions of the search, which turns the tree into a directed acyclic graph. The parent of a node is
+ * the one it was created from, the territory occupied on the way to a successor and the visits of that edge are kept
+ * per edge in the predecessor.
  */
 @Getter
-@RequiredArgsConstructor
 public class InitialPlacementNode implements Node {
     private final int player;
     private final int id;
-    private final Node parent;
-    private final List<Map.Entry<Integer, RiskTerritory>> occupiedTerritories;
-    private final List<Map.Entry<Integer, RiskTerritory>> unoccupiedTerritories;
+    private Node parent;
+    private final TerritorySet[] occupiedTerritories;
+    private final TerritorySet unoccupiedTerritories;
+    private final long occupationHash;
+    @Getter(AccessLevel.NONE)
+    private final InitialPlacementTranspositions transpositions;
     private List<Node> successors = null;
+    @Getter(AccessLevel.NONE)
+    private int[] successorTerritories = null;
+    @Getter(AccessLevel.NONE)
+    private int[] successorVisitCounts = null;
     private double winScore;
     private int visitCount = 0;
 
+    /**
+     * @param player                The player who occupied the territory of this node
+     * @param id                    The territory occupied by the player coming from the parent, -1 for a root node
+     * @param parent                The node this node is created from, null for a root node
+     * @param occupiedTerritories   The territories per player (indexed by player id), they must not be changed later on
+     * @param unoccupiedTerritories The territories nobody occupies yet, they must not be changed later on
+     * @param occupationHash        The hash of the occupied territories, see ZobristHash.ofOccupation
+     * @param transpositions        The nodes of the search shared by all of its nodes
+     */
+    InitialPlacementNode(int player, int id, Node parent, TerritorySet[] occupiedTerritories,
+                         TerritorySet unoccupiedTerritories, long occupationHash, InitialPlacementTranspositions transpositions) {
+        this.player = player;
+        this.id = id;
+        this.parent = parent;
+        this.occupiedTerritories = occupiedTerritories;
+        this.unoccupiedTerritories = unoccupiedTerritories;
+        this.occupationHash = occupationHash;
+        this.transpositions = transpositions;
+    }
+
+    /**
+     * Create a root node from the occupation of a board, for a new search
+     *
+     * @param player The player who occupied a territory last
+     * @param board  The board still in the initial placement phase
+     * @return The root node
+     */
+    public static InitialPlacementNode createRoot(int player, RiskBoard board) {
+        return createRoot(player, board, new InitialPlacementTranspositions());
+    }
+
+    /**
+     * Create a root node from the occupation of a board, sharing the nodes already searched from a previous root
+     *
+     * @param player   The player who occupied a territory last
+     * @param board    The board still in the initial placement phase
+     * @param previous A previous root of the search
+     * @return The root node
+     */
+    public static InitialPlacementNode createRoot(int player, RiskBoard board, InitialPlacementNode previous) {
+        return createRoot(player, board, previous.transpositions);
+    }
+
+    private static InitialPlacementNode createRoot(int player, RiskBoard board, InitialPlacementTranspositions transpositions) {
+        BoardTopology topology = BoardTopology.of(board);
+        TerritorySet[] occupiedTerritories = getOccupation(board);
+        TerritorySet unoccupiedTerritories = topology.occupiedBy(board, -1);
+        return new InitialPlacementNode(player, -1, null, occupiedTerritories, unoccupiedTerritories,
+                ZobristHash.ofOccupation(occupiedTerritories), transpositions);
+    }
+
+    /**
+     * @param board The board
+     * @return The territories of every player on the board, indexed by player id
+     */
+    public static TerritorySet[] getOccupation(RiskBoard board) {
+        BoardTopology topology = BoardTopology.of(board);
+        TerritorySet[] occupiedTerritories = new TerritorySet[board.getNumberOfPlayers()];
+        for (int p = 0; p < occupiedTerritories.length; p++) {
+            occupiedTerritories[p] = topology.occupiedBy(board, p);
+        }
+        return occupiedTerritories;
+    }
+
+    /**
+     * @param player The player
+     * @return The territories occupied by the player, the set must not be changed
+     */
+    public TerritorySet getOccupiedBy(int player) {
+        return occupiedTerritories[player];
+    }
+
+    /**
+     * @param occupiedTerritories The territories per player (indexed by player id)
+     * @return Whether the territories of every player are the same as in this node
+     */
+    public boolean hasOccupation(TerritorySet[] occupiedTerritories) {
+        return Arrays.equals(this.occupiedTerritories, occupiedTerritories);
+    }
+
+    /**
+     * Find the node of an occupation below this node, e.g. the node of the board after the enemy's placement.
+     * The node is looked up by the hash of the occupation, placements reached in a different order are found as well.
+     *
+     * @param occupiedTerritories The territories per player (indexed by player id)
+     * @param occupationHash      The hash of the occupation
+     * @return The node of the occupation, empty if this node does not lead to the occupation or it was never reached
+     */
+    public Optional<InitialPlacementNode> findDescendant(TerritorySet[] occupiedTerritories, long occupationHash) {
+        int missingPlacements = 0;
+        for (int p = 0; p < occupiedTerritories.length; p++) {
+            if (!occupiedTerritories[p].containsAll(this.occupiedTerritories[p])) {
+                return Optional.empty();
+            }
+            missingPlacements += occupiedTerritories[p].size() - this.occupiedTerritories[p].size();
+        }
+        if (missingPlacements == 0) {
+            return hasOccupation(occupiedTerritories) ? Optional.of(this) : Optional.empty();
+        }
+        if (missingPlacements == 1) {
+            getSuccessors();
+        }
+        InitialPlacementNode descendant = transpositions.get(occupationHash, unoccupiedTerritories.size() - missingPlacements);
+        return descendant != null && descendant.hasOccupation(occupiedTerritories) ? Optional.of(descendant) : Optional.empty();
+    }
+
+    /**
+     * Drop the shared nodes which can not be reached from this node anymore, as it is the new root of the search
+     */
+    public void discardPredecessors() {
+        transpositions.discardBefore(this);
+    }
+
+    /**
+     * @param ancestor A node of the search
+     * @return Whether every player holds at least the territories of the ancestor, i.e. whether this node can be
+     * reached from it
+     */
+    boolean extendsOccupation(InitialPlacementNode ancestor) {
+        for (int p = 0; p < occupiedTerritories.length; p++) {
+            if (!occupiedTerritories[p].containsAll(ancestor.occupiedTerritories[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget the parent if it can not be reached from the root anymore, so it does not keep its subgraph alive
+     *
+     * @param root The new root of the search
+     */
+    void discardParentBefore(InitialPlacementNode root) {
+        if (parent != null && (this == root || !((InitialPlacementNode) parent).extendsOccupation(root))) {
+            parent = null;
+        }
+    }
+
     /**
      * @return The possible successor nodes occupying unoccupied territory.
      */
@@ -29,20 +183,68 @@ public class InitialPlacementNode implements Node {
         if (successors != null) {
             return successors;
         }
-        successors = new ArrayList<>();
-        //should be parameterizable by player size
-        for (Map.Entry<Integer, RiskTerritory> entry : unoccupiedTerritories) {
-            var newOccupied = new ArrayList<>(occupiedTerritories);
-            var newTerritory = new RiskTerritory(entry.getValue());
-            newTerritory.setOccupantPlayerId((player + 1) % 2);
-            newOccupied.add(new AbstractMap.SimpleEntry<>(entry.getKey(), newTerritory));
-            var newUnoccupied = new ArrayList<>(unoccupiedTerritories);
-            newUnoccupied.remove(entry);
-            successors.add(new InitialPlacementNode((player + 1) % 2, entry.getKey(), this, newOccupied, newUnoccupied));
+        int nextPlayer = (player + 1) % occupiedTerritories.length;
+        successors = new ArrayList<>(unoccupiedTerritories.size());
+        successorTerritories = new int[unoccupiedTerritories.size()];
+        successorVisitCounts = new int[unoccupiedTerritories.size()];
+        for (int territory = unoccupiedTerritories.next(0); territory >= 0; territory = unoccupiedTerritories.next(territory + 1)) {
+            successorTerritories[successors.size()] = territory;
+            successors.add(getSuccessor(nextPlayer, territory));
         }
         return successors;
     }
 
+    private InitialPlacementNode getSuccessor(int nextPlayer, int territory) {
+        long newHash = occupationHash ^ ZobristHash.occupationKey(territory, nextPlayer);
+        InitialPlacementNode transposition = transpositions.get(newHash, unoccupiedTerritories.size() - 1);
+        if (transposition != null && transposition.getPlayer() == nextPlayer && isSuccessorOccupation(transposition, nextPlayer, territory)) {
+            return transposition;
+        }
+        TerritorySet[] newOccupied = occupiedTerritories.clone();
+        newOccupied[nextPlayer] = occupiedTerritories[nextPlayer].copy();
+        newOccupied[nextPlayer].add(territory);
+        TerritorySet newUnoccupied = unoccupiedTerritories.copy();
+        newUnoccupied.remove(territory);
+        InitialPlacementNode successor = new InitialPlacementNode(nextPlayer, territory, this, newOccupied, newUnoccupied, newHash, transpositions);
+        // on a hash collision the table keeps the first node, the new one is just not shared
+        transpositions.put(successor);
+        return successor;
+    }
+
+    /**
+     * @return Whether the node has the occupation of this node plus the territory occupied by the player
+     */
+    private boolean isSuccessorOccupation(InitialPlacementNode node, int nextPlayer, int territory) {
+        if (!node.getOccupiedBy(nextPlayer).contains(territory)) {
+            return false;
+        }
+        for (int p = 0; p < occupiedTerritories.length; p++) {
+            int expectedSize = occupiedTerritories[p].size() + (p == nextPlayer ? 1 : 0);
+            if (node.getOccupiedBy(p).size() != expectedSize || !node.getOccupiedBy(p).containsAll(occupiedTerritories[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param successorIndex The index of a successor in getSuccessors
+     * @return The territory occupied on the way to the successor
+     */
+    public int getSuccessorTerritory(int successorIndex) {
+        return successorTerritories[successorIndex];
+    }
+
+    @Override
+    public int getSuccessorVisitCount(int successorIndex) {
+        return successorVisitCounts[successorIndex];
+    }
+
+    @Override
+    public void incrementSuccessorVisitCount(int successorIndex) {
+        successorVisitCounts[successorIndex]++;
+    }
+
     /**
      * @return Whether this node is a leaf node (all territories have been occupied)
      */
@@ -52,7 +254,7 @@ public class InitialPlacementNode implements Node {
     }
 
     /**
-     * @return Get the parent of the node, empty if it is a root node
+     * @return Get the parent the node was created from, empty if it is a root node
      */
     @Override
     public Optional<Node> getParent() {
@@ -0,0 +1,124 @@
+package at.ac.tuwien.ifs.sge.leeroy.agents;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * The MCTS of the initial placement, used by Leeroy during the game and by the opening book builder offline.
+ * The search runs on a graph of nodes (see InitialPlacementNode), so it keeps the path of every iteration for the
+ * backpropagation and uses the visits of the edges for exploration.
+ * Every node is scored for the player who occupied its territory, so each player picks the placements best for itself.
+ */
+public class InitialPlacementSearch {
+
+    /**
+     * Get the successor we estimate best for winning
+     *
+     * @param node              The root node
+     * @param expansionFunction The function to expand nodes
+     * @param playOutFunction   The function to play out the game from a node and evaluate the result for every player
+     * @param shouldStop        Whether the search has to stop, checked before every iteration
+     * @return The index of the successor of the root we estimate best for winning
+     */
+    public static int searchBestSuccessor(Node node, Function<Node, Node> expansionFunction, Function<Node, int[]> playOutFunction,
+                                          BooleanSupplier shouldStop) {
+        performMCTS(node, expansionFunction, playOutFunction, shouldStop);
+        return rankSuccessors(node)[0];
+    }
+
+    /**
+     * @param node An expanded node
+     * @return The indices of the successors of the node, ordered from the most to the least visited from the node,
+     * equally visited successors by their mean score
+     */
+    public static int[] rankSuccessors(Node node) {
+        List<Node> successors = node.getSuccessors();
+        return IntStream.range(0, successors.size())
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer i) -> node.getSuccessorVisitCount(i))
+                        .thenComparingDouble(i -> getMeanScore(successors.get(i)))
+                        .reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static double getMeanScore(Node node) {
+        return node.getVisitCount() == 0 ? Double.NEGATIVE_INFINITY : node.getWinScore() / node.getVisitCount();
+    }
+
+    private static void performMCTS(Node node, Function<Node, Node> nodeSelectionFunction, Function<Node, int[]> playOutFunction,
+                                    BooleanSupplier shouldStop) {
+        List<Node> path = new ArrayList<>();
+        while (!shouldStop.getAsBoolean()) {
+            path.clear();
+            path.add(node);
+            var selectedNode = select(path);
+            var successors = selectedNode.getSuccessors(); //expand
+            if (successors.isEmpty()) {
+                backpropagate(path, playOutFunction.apply(selectedNode));
+            } else {
+                var explorationNode = nodeSelectionFunction.apply(selectedNode);
+                selectedNode.incrementSuccessorVisitCount(successors.indexOf(explorationNode));
+                path.add(explorationNode);
+                backpropagate(path, playOutFunction.apply(explorationNode));
+            }
+        }
+    }
+
+    /**
+     * Descend from the last node of the path to a node which is not expanded yet (or a leaf), adding the visited nodes
+     * to the path. The path is needed for the backpropagation, as a node can have multiple parents.
+     */
+    private static Node select(List<Node> path) {
+        Node bestNode = path.get(path.size() - 1);
+        while (bestNode.isExpanded() && !bestNode.getSuccessors().isEmpty()) {
+            bestNode = findBestSuccessor(bestNode);
+            path.add(bestNode);
+        }
+        return bestNode;
+    }
+
+    private static Node findBestSuccessor(Node node) {
+        var visited = node.getVisitCount();
+        var successors = node.getSuccessors();
+        int bestSuccessor = 0;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < successors.size(); i++) {
+            double value = getUCTValue(visited, node.getSuccessorVisitCount(i), successors.get(i));
+            if (value > bestValue) {
+                bestValue = value;
+                bestSuccessor = i;
+            }
+        }
+        node.incrementSuccessorVisitCount(bestSuccessor);
+        return successors.get(bestSuccessor);
+    }
+
+    /**
+     * UCT for a graph: the mean score is taken from the successor, which combines the visits of all its parents,
+     * while the exploration term uses the visits of the edge, so a successor well known via other parents is still
+     * tried from this one.
+     */
+    private static double getUCTValue(int parentVisited, int edgeVisited, Node node) {
+        if (node.getVisitCount() == 0 || edgeVisited == 0) {
+            return Integer.MAX_VALUE;
+        } else {
+            return (node.getWinScore() / node.getVisitCount()) + 1.414 * Math.sqrt(Math.log(parentVisited) / edgeVisited);
+        }
+    }
+
+    /**
+     * Credit every node on the path with the score of the player who occupied its territory, as the parent's player
+     * to move selects it by that score
+     */
+    private static void backpropagate(List<Node> path, int[] playOutScores) {
+        for (Node nodeToUpdate : path) {
+            nodeToUpdate.incrementVisitCount();
+            nodeToUpdate.incrementWinScore(playOutScores[nodeToUpdate.getPlayer()]);
+        }
+    }
+}
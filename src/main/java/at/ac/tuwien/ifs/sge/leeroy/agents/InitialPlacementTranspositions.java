@@ -0,0 +1,55 @@
+package at.ac.tuwien.ifs.sge.leeroy.agents;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The nodes of the initial placement search per occupation hash, so placements reached in a different order share one
+ * node. The nodes are grouped by the number of unoccupied territories: every placement reduces it, so once the root
+ * has moved on, the groups with more unoccupied territories can never be reached again and are dropped. Of the other
+ * groups only the nodes extending the occupation of the root are kept, the rest (e.g. the subgraphs of the placements
+ * the game did not take) is dropped as well.
+ */
+class InitialPlacementTranspositions {
+
+    private final List<Map<Long, InitialPlacementNode>> nodesByUnoccupied = new ArrayList<>();
+
+    /**
+     * @param occupationHash The hash of an occupation
+     * @param unoccupied     The number of unoccupied territories of the occupation
+     * @return The node of the occupation, null if there is none yet
+     */
+    InitialPlacementNode get(long occupationHash, int unoccupied) {
+        return unoccupied < nodesByUnoccupied.size() ? nodesByUnoccupied.get(unoccupied).get(occupationHash) : null;
+    }
+
+    void put(InitialPlacementNode node) {
+        int unoccupied = node.getUnoccupiedTerritories().size();
+        while (nodesByUnoccupied.size() <= unoccupied) {
+            nodesByUnoccupied.add(new HashMap<>());
+        }
+        nodesByUnoccupied.get(unoccupied).putIfAbsent(node.getOccupationHash(), node);
+    }
+
+    /**
+     * Drop the nodes which can not be reached from a root anymore, and the links of the remaining nodes to them
+     *
+     * @param root The current root of the search
+     */
+    void discardBefore(InitialPlacementNode root) {
+        int rootUnoccupied = root.getUnoccupiedTerritories().size();
+        for (int unoccupied = 0; unoccupied < nodesByUnoccupied.size(); unoccupied++) {
+            Map<Long, InitialPlacementNode> nodes = nodesByUnoccupied.get(unoccupied);
+            if (unoccupied > rootUnoccupied) {
+                nodes.clear();
+                continue;
+            }
+            nodes.values().removeIf(node -> !node.extendsOccupation(root));
+            // a kept node may have been created from a dropped one
+            nodes.values().forEach(node -> node.discardParentBefore(root));
+        }
+        root.discardParentBefore(root);
+    }
+}
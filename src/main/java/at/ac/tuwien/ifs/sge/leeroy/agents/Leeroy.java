@@ -7,14 +7,16 @@ import at.ac.tuwien.ifs.sge.game.Game;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
-import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
 import at.ac.tuwien.ifs.sge.leeroy.phase.Phase;
 import at.ac.tuwien.ifs.sge.leeroy.phase.PhaseUtils;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.ZobristHash;
 import at.ac.tuwien.ifs.sge.util.Util;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -27,11 +29,18 @@ import java.util.stream.Collectors;
  */
 public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G, A> implements GameAgent<G, A> {
 
-    private final int INITIAL_SELECT_TIMEOUT_PENALTY = 10000000;
+    // file of the opening book for the initial placement (see OpeningBookBuilder), set with -Dleeroy.openingBook=<file>
+    protected final String OPENING_BOOK = System.getProperty("leeroy.openingBook", "");
+
     Phase currentPhase = Phase.INITIAL_SELECT;
     Node initialPlacementRoot;
+    private Optional<OpeningBook> openingBook = null;
     private int playerNumber;
     private int numberOfPlayers;
+    protected final TimeManager timeManager = new TimeManager();
+    // the game before our last action and the action, so pondering can start from the state after it
+    protected volatile Risk lastMoveGame = null;
+    protected volatile RiskAction lastMoveAction = null;
 
     /**
      * Generate a new Leeroy agent
@@ -54,18 +63,19 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
     public A computeNextAction(G game, long computationTime, TimeUnit timeUnit) {
         super.setTimers(computationTime, timeUnit);
 
-        // :-( other agents might influence ours
-        System.gc();
-
         log.info("Computing action");
         Risk risk = (Risk) game;
         RiskBoard board = risk.getBoard();
         A nextAction;
         try {
             setPhase(board);
-            if (currentPhase == Phase.INITIAL_SELECT) {
+            timeManager.startMove(risk, timeUnit.toNanos(computationTime), currentPhase == Phase.INITIAL_SELECT);
+            if (timeManager.isForcedMove()) {
+                // e.g. a single occupy option or card trade, nothing to think about
+                nextAction = (A) timeManager.getForcedAction();
+            } else if (currentPhase == Phase.INITIAL_SELECT) {
                 setNewInitialPlacementRoot(risk, board);
-                nextAction = (A) selectInitialCountry(risk, board);
+                nextAction = (A) selectInitialCountry(board);
             } else if (board.isReinforcementPhase()) {
                 nextAction = (A) reinforce(risk, board);
             } else if (board.isAttackPhase()) {
@@ -89,6 +99,9 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
             log.err("Invalid action" + nextAction + "; state " + currentPhase + "; " + game);
             nextAction = (A) Util.selectRandom(risk.getPossibleActions());
         }
+        timeManager.finishMove();
+        lastMoveGame = risk;
+        lastMoveAction = (RiskAction) nextAction;
         return nextAction;
     }
 
@@ -113,17 +126,67 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
 
     /**
      * Select an unoccupied country we want to occupy
-     * This method employs MCTS for selecting the node we hope results in the best
-     * board for us at the end of the initial occupation phase.
+     * If the opening book contains the current occupation, its reply is used. Otherwise this method employs MCTS for
+     * selecting the node we hope results in the best board for us at the end of the initial occupation phase.
      *
-     * @param game  The risk game
      * @param board The risk board (separate so it can be cached)
      * @return A risk action to occupy an unoccupied country
      */
-    private RiskAction selectInitialCountry(Risk game, RiskBoard board) {
+    private RiskAction selectInitialCountry(RiskBoard board) {
+        var root = (InitialPlacementNode) initialPlacementRoot;
+        int bestSuccessor = getBookSuccessor(root, board);
+        if (bestSuccessor < 0) {
+            bestSuccessor = InitialPlacementSearch.searchBestSuccessor(root, GameUtils.partialInitialExpansionFunction(board),
+                    GameUtils.partialInitialPlayOutFunction(board), timeManager::shouldStop);
+        }
         //Graph moved one node forward after the action
-        initialPlacementRoot = searchBestNode(initialPlacementRoot, GameUtils.partialInitialExpansionFunction(board), GameUtils.partialInitialEvaluationFunction(game, board));
-        return RiskAction.select(initialPlacementRoot.getId());
+        initialPlacementRoot = root.getSuccessors().get(bestSuccessor);
+        return RiskAction.select(root.getSuccessorTerritory(bestSuccessor));
+    }
+
+    /**
+     * @param root  The node of the current occupation
+     * @param board The risk board
+     * @return The index of the successor of the root the opening book replies with, -1 if the book has no reply
+     */
+    private int getBookSuccessor(InitialPlacementNode root, RiskBoard board) {
+        var book = getOpeningBook(board);
+        if (book.isEmpty()) {
+            return -1;
+        }
+        OptionalInt reply = book.get().getReply(root.getOccupationHash());
+        if (reply.isEmpty() || !root.getUnoccupiedTerritories().contains(reply.getAsInt())) {
+            return -1;
+        }
+        var successors = root.getSuccessors();
+        for (int i = 0; i < successors.size(); i++) {
+            if (root.getSuccessorTerritory(i) == reply.getAsInt()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Optional<OpeningBook> getOpeningBook(RiskBoard board) {
+        if (openingBook != null) {
+            return openingBook;
+        }
+        openingBook = Optional.empty();
+        if (OPENING_BOOK.isEmpty()) {
+            return openingBook;
+        }
+        try {
+            var book = OpeningBook.load(Path.of(OPENING_BOOK));
+            if (book.getLayoutKey() == BoardTopology.of(board).getLayoutKey()) {
+                openingBook = Optional.of(book);
+                log.info("Loaded " + book.size() + " openings");
+            } else {
+                log.warn("The opening book " + OPENING_BOOK + " is for another board");
+            }
+        } catch (IOException | RuntimeException e) {
+            log.err("Could not load the opening book " + OPENING_BOOK + ": " + e.getMessage());
+        }
+        return openingBook;
     }
 
     /**
@@ -155,19 +218,6 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
                 .collect(Collectors.toSet()));
     }
 
-    /**
-     * Get the node we estimate best for winning
-     *
-     * @param node               The root node
-     * @param expansionFunction  The function to expand nodes
-     * @param evaluationFunction The function to evaluate nodes
-     * @return The node we estimate best for winning
-     */
-    private Node searchBestNode(Node node, Function<Node, Node> expansionFunction, Function<Node, Integer> evaluationFunction) {
-        performMCTS(node, expansionFunction, evaluationFunction);
-        return node.getSuccessors().stream().max(Comparator.comparingDouble(Node::getWinScore)).get();
-    }
-
     /**
      * Get the risk action deemed the best for attacking.
      * For more in-depth explanation of the action generation function, refer to the AttackActionSupplier class
@@ -220,94 +270,26 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
         return bestAction.orElse(RiskAction.endPhase()); // if no action was found we just end the at.ac.tuwien.ifs.sge.leeroy.phase
     }
 
+    /**
+     * Move the root of the initial placement graph to the node of the current board.
+     * If the graph does not contain the board (e.g. placements were missed), a new root is created from the board,
+     * which still shares the nodes searched before.
+     */
     private void setNewInitialPlacementRoot(Risk game, RiskBoard board) {
-        if (this.initialPlacementRoot == null) {
+        var occupation = InitialPlacementNode.getOccupation(board);
+        long occupationHash = ZobristHash.ofOccupation(occupation);
+        int lastPlayer = (game.getCurrentPlayer() + 1) % 2;
+        InitialPlacementNode newRoot;
+        if (initialPlacementRoot == null) {
             log.info(Phase.INITIAL_SELECT);
-            this.initialPlacementRoot = new InitialPlacementNode((game.getCurrentPlayer() + 1) % 2,
-                    -1,
-                    null,
-                    GameUtils.getOccupiedEntries(board),
-                    GameUtils.getUnoccupiedEntries(board));
-        } else {
-            var occupiedEntries = GameUtils.getOccupiedEntries(board);
-            initialPlacementRoot = initialPlacementRoot
-                    .getSuccessors()
-                    .stream()
-                    .filter(node -> equal(((InitialPlacementNode) node).getOccupiedTerritories(), occupiedEntries))
-                    .findFirst()
-                    .get();
-        }
-    }
-
-    private boolean equal(List<Map.Entry<Integer, RiskTerritory>> occupiedEntriesA, List<Map.Entry<Integer, RiskTerritory>> occupiedEntriesB) {
-        if (occupiedEntriesA.size() != occupiedEntriesB.size()) {
-            return false;
-        }
-        for (Map.Entry<Integer, RiskTerritory> occupiedEntryA : occupiedEntriesA) {
-            boolean present = occupiedEntriesB.
-                    stream()
-                    .filter(integerRiskTerritoryEntry -> integerRiskTerritoryEntry.getKey().equals(occupiedEntryA.getKey()))
-                    .anyMatch(integerRiskTerritoryEntry -> integerRiskTerritoryEntry.getValue().getOccupantPlayerId() == occupiedEntryA.getValue().getOccupantPlayerId());
-            if (!present) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private void performMCTS(Node node, Function<Node, Node> nodeSelectionFunction, Function<Node, Integer> evaluationFunction) {
-        while (!this.shouldStopComputation(INITIAL_SELECT_TIMEOUT_PENALTY)) {
-            var selectedNode = select(node);
-            var successors = selectedNode.getSuccessors(); //expand
-            if (successors.isEmpty()) {
-                backpropagate(node.getPlayer(), selectedNode, evaluationFunction.apply(selectedNode));
-            } else {
-                var explorationNode = nodeSelectionFunction.apply(selectedNode);
-                int playOutResult = playOutGame(explorationNode, nodeSelectionFunction, evaluationFunction);
-                backpropagate(node.getPlayer(), explorationNode, playOutResult);
-            }
-        }
-    }
-
-    private Node select(Node rootNode) {
-        Node bestNode = rootNode;
-        while (bestNode.isExpanded() && !bestNode.getSuccessors().isEmpty()) {
-            bestNode = findBestSuccessor(bestNode);
-        }
-        return bestNode;
-    }
-
-    private Node findBestSuccessor(Node node) {
-        var visited = node.getVisitCount();
-        return Collections.max(node.getSuccessors(), Comparator.comparingDouble(nodeA -> getUCTValue(visited, nodeA)));
-    }
-
-    private double getUCTValue(int parentVisited, Node node) {
-        if (node.getVisitCount() == 0) {
-            return Integer.MAX_VALUE;
+            newRoot = InitialPlacementNode.createRoot(lastPlayer, board);
         } else {
-            return (node.getWinScore() / node.getVisitCount()) + 1.414 * Math.sqrt(Math.log(parentVisited) / node.getVisitCount());
-        }
-    }
-
-    private int playOutGame(Node explorationNode, Function<Node, Node> nodeSelectionFunction, Function<Node, Integer> evaluationFunction) {
-        var currentNode = explorationNode;
-        while (!currentNode.getSuccessors().isEmpty()) {
-            currentNode = nodeSelectionFunction.apply(currentNode);
-        }
-        return evaluationFunction.apply(currentNode);
-    }
-
-    private void backpropagate(int player, Node explorationNode, int playOutResult) {
-        var toUpdate = Optional.of(explorationNode);
-        while (toUpdate.isPresent()) {
-            var nodeToUpdate = toUpdate.get();
-            nodeToUpdate.incrementVisitCount();
-            if (nodeToUpdate.getPlayer() == player) {
-                nodeToUpdate.incrementWinScore(playOutResult);
-            }
-            toUpdate = nodeToUpdate.getParent();
+            var previousRoot = (InitialPlacementNode) initialPlacementRoot;
+            newRoot = previousRoot.findDescendant(occupation, occupationHash)
+                    .orElseGet(() -> InitialPlacementNode.createRoot(lastPlayer, board, previousRoot));
         }
+        newRoot.discardPredecessors();
+        initialPlacementRoot = newRoot;
     }
 
     /**
@@ -323,9 +305,12 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
         this.numberOfPlayers = numberOfPlayers;
     }
 
+    /**
+     * Stop pondering, so no background search outlives the match
+     */
     @Override
     public void tearDown() {
-
+        ponderStop();
     }
 
     @Override
@@ -340,6 +325,6 @@ public class Leeroy<G extends Game<A, RiskBoard>, A> extends AbstractGameAgent<G
 
     @Override
     public void destroy() {
-
+        ponderStop();
     }
 }
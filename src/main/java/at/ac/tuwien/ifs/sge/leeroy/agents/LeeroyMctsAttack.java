@@ -6,7 +6,9 @@ import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
 import at.ac.tuwien.ifs.sge.leeroy.mcts.ActionNode;
 import at.ac.tuwien.ifs.sge.leeroy.mcts.AttackMctsActionSupplier;
-import at.ac.tuwien.ifs.sge.leeroy.mcts.MctsActionSupplier;
+import at.ac.tuwien.ifs.sge.leeroy.mcts.RolloutMode;
+import at.ac.tuwien.ifs.sge.leeroy.mcts.SearchParallelism;
+import at.ac.tuwien.ifs.sge.leeroy.mcts.SearchTelemetry;
 import at.ac.tuwien.ifs.sge.util.Util;
 
 /***
@@ -15,9 +17,24 @@ import at.ac.tuwien.ifs.sge.util.Util;
  */
 public class LeeroyMctsAttack extends Leeroy {
 
-    protected final int ATTACK_TIMEOUT_PENALTY = 1;
-    protected final int OCCUPY_TIMEOUT_PENALTY = 2;
-    protected final int REINFORCE_TIMEOUT_PENALTY = 2;
+    // number of trees searched in parallel per decision, can be set with -Dleeroy.mcts.threads=<n>
+    protected final int MCTS_THREADS = Integer.getInteger("leeroy.mcts.threads", Runtime.getRuntime().availableProcessors());
+    // one tree per thread (ROOT) or one tree shared by all threads (TREE), can be set with -Dleeroy.mcts.parallelism=<mode>
+    protected final SearchParallelism MCTS_PARALLELISM = SearchParallelism.valueOf(System.getProperty("leeroy.mcts.parallelism", "ROOT").toUpperCase());
+    // search on the array based tree store, can be enabled with -Dleeroy.mcts.compactTree=true
+    protected final boolean MCTS_COMPACT_TREE = Boolean.getBoolean("leeroy.mcts.compactTree");
+    // open up ranked attacks and reinforcements gradually, can be disabled with -Dleeroy.mcts.progressiveWidening=false
+    protected final boolean MCTS_PROGRESSIVE_WIDENING = Boolean.parseBoolean(System.getProperty("leeroy.mcts.progressiveWidening", "true"));
+    // simulate the attack phase on arrays instead of sge games, can be disabled with -Dleeroy.mcts.fastRollouts=false
+    protected final boolean MCTS_FAST_ROLLOUTS = Boolean.parseBoolean(System.getProperty("leeroy.mcts.fastRollouts", "true"));
+    // SAMPLED or EXPECTED_VALUE rollouts, set with -Dleeroy.mcts.rolloutMode=<mode> or per agent class with
+    // -Dleeroy.mcts.rolloutMode.<simple class name>=<mode>
+    protected final RolloutMode MCTS_ROLLOUT_MODE = RolloutMode.valueOf(System.getProperty(
+            "leeroy.mcts.rolloutMode." + getClass().getSimpleName(),
+            System.getProperty("leeroy.mcts.rolloutMode", "SAMPLED")).toUpperCase());
+
+    // statistics of this agent's last search, its garbage collection pauses are expected in the next one
+    protected SearchTelemetry lastTelemetry = null;
 
     /**
      * Generate a new MCTS-based Leeroy
@@ -67,10 +84,19 @@ public class LeeroyMctsAttack extends Leeroy {
     }
 
     private RiskAction performMCTS(Risk risk) {
-        MctsActionSupplier actionSupplier = new AttackMctsActionSupplier(
-                () -> this.shouldStopComputation(OCCUPY_TIMEOUT_PENALTY));
+        AttackMctsActionSupplier actionSupplier = new AttackMctsActionSupplier(
+                timeManager::shouldStop, MCTS_THREADS, MCTS_PARALLELISM);
         actionSupplier.setRootNode(new ActionNode(risk.getCurrentPlayer(), null, risk, null));
+        actionSupplier.setRemainingTime(timeManager::nanosLeft);
+        actionSupplier.setPreviousTelemetry(lastTelemetry);
+        timeManager.watchLeader(actionSupplier::getLeadingAction);
+        actionSupplier.setCompactTree(MCTS_COMPACT_TREE);
+        actionSupplier.setProgressiveWidening(MCTS_PROGRESSIVE_WIDENING);
+        actionSupplier.setFastRollouts(MCTS_FAST_ROLLOUTS);
+        actionSupplier.setRolloutMode(MCTS_ROLLOUT_MODE);
         ActionNode bestNode = actionSupplier.findBestNode();
+        lastTelemetry = actionSupplier.getTelemetry();
+        log.debug(lastTelemetry);
         return bestNode != null ? bestNode.getAction() : Util.selectRandom(risk.getPossibleActions());
     }
 }
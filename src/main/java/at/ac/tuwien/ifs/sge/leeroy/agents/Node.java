@@ -14,6 +14,13 @@ public interface Node {
 
     int getVisitCount();
 
+    /**
+     * In a search graph a node can be reached from multiple parents, so the edges count their visits separately
+     */
+    int getSuccessorVisitCount(int successorIndex);
+
+    void incrementSuccessorVisitCount(int successorIndex);
+
     void incrementVisitCount();
 
     double getWinScore();
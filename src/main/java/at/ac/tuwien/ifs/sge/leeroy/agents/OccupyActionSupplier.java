@@ -4,8 +4,12 @@ import at.ac.tuwien.ifs.sge.game.ActionRecord;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.FrontlineDistanceField;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.RolloutRisk;
 
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -17,6 +21,7 @@ import java.util.Set;
  * If the distance is the same (or both are on the frontline) actions are generated
  * for moving the maximum amount, moving the minimum amount, and moving based on
  * the ratio of neighbouring enemy troops.
+ * The territories are judged on the board after the occupation, with the distances of the FrontlineDistanceField.
  */
 public class OccupyActionSupplier {
 
@@ -27,14 +32,15 @@ public class OccupyActionSupplier {
      *
      * @param risk      The risk game
      * @param riskBoard The risk board (separate for caching)
+     * @param topology  The topology of the board
      * @return A set of actions for occupying a newly conquered territory.
      */
-    public static Set<RiskAction> createActions(Risk risk, RiskBoard riskBoard) {
+    public static Set<RiskAction> createActions(Risk risk, RiskBoard riskBoard, BoardTopology topology) {
         int attackActionId = risk.getNumberOfActions() - 2;
         ActionRecord attackRecord = risk.getActionRecords().get(attackActionId);
         RiskAction attackAction = (RiskAction) attackRecord.getAction();
 
-        return createActions(risk, riskBoard, attackAction);
+        return createActions(risk, riskBoard, topology, attackAction);
     }
 
     /**
@@ -43,17 +49,21 @@ public class OccupyActionSupplier {
      *
      * @param risk         The risk game
      * @param riskBoard    The risk board (separate for caching)
+     * @param topology     The topology of the board
      * @param attackAction The attack action leading to conquering the territory.
      * @return A set of actions for occupying a newly conquered territory.
      */
-    public static Set<RiskAction> createActions(Risk risk, RiskBoard riskBoard, RiskAction attackAction) {
+    public static Set<RiskAction> createActions(Risk risk, RiskBoard riskBoard, BoardTopology topology, RiskAction attackAction) {
         int srcTerritory = attackAction.attackingId();
         int targetTerritory = attackAction.defendingId();
 
-        Set<Integer> srcEnemyNeighbors = riskBoard.neighboringEnemyTerritories(srcTerritory);
-        Set<Integer> targetEnemyNeighbors = riskBoard.neighboringEnemyTerritories(targetTerritory);
-        boolean isSrcSafe = srcEnemyNeighbors.isEmpty();
-        boolean isTargetSafe = targetEnemyNeighbors.isEmpty();
+        // the territories are judged as they are after the occupation
+        FrontlineDistanceField distanceField = FrontlineDistanceField.of(riskBoard, topology, risk.getCurrentPlayer())
+                .withOccupied(targetTerritory);
+        int srcEnemyNeighbors = distanceField.countEnemyNeighbors(srcTerritory);
+        int targetEnemyNeighbors = distanceField.countEnemyNeighbors(targetTerritory);
+        boolean isSrcSafe = srcEnemyNeighbors == 0;
+        boolean isTargetSafe = targetEnemyNeighbors == 0;
 
         if (isTargetSafe && !isSrcSafe) {
             return Set.of(RiskAction.occupy(1)); // min troops
@@ -63,8 +73,8 @@ public class OccupyActionSupplier {
 
         if (isTargetSafe && isSrcSafe) {
             // if none of the territories is at the frontline - check which is closer
-            int srcFrontlineDistance = getFrontlineDistance(risk, riskBoard, srcTerritory);
-            int targetFrontlineDistance = getFrontlineDistance(risk, riskBoard, targetTerritory);
+            int srcFrontlineDistance = distanceField.getDistance(srcTerritory);
+            int targetFrontlineDistance = distanceField.getDistance(targetTerritory);
 
             if (srcFrontlineDistance < targetFrontlineDistance) {
                 return Set.of(RiskAction.occupy(1)); // min troops
@@ -82,7 +92,7 @@ public class OccupyActionSupplier {
                 RiskAction.occupy(1),
                 RiskAction.occupy(riskBoard.getFortifyableTroops(srcTerritory))));
 
-        double targetFrontlineTerritoryRatio = targetEnemyNeighbors.size() * 1.0 / (targetEnemyNeighbors.size() + srcEnemyNeighbors.size());
+        double targetFrontlineTerritoryRatio = targetEnemyNeighbors * 1.0 / (targetEnemyNeighbors + srcEnemyNeighbors);
         long occupyTroops = Math.round(riskBoard.getFortifyableTroops(srcTerritory) * targetFrontlineTerritoryRatio);
         if (occupyTroops > 1) {
             evaluatedActions.add(RiskAction.occupy((int) occupyTroops));
@@ -92,36 +102,70 @@ public class OccupyActionSupplier {
     }
 
     /**
-     * returns the distance to the closest frontline territory
+     * Select the troops to occupy a newly conquered territory with during a rollout.
+     * The same rules as for the actions generated for the MCTS apply, if they allow multiple amounts, one of them is
+     * selected at random.
      *
-     * @param risk            The risk game
-     * @param sourceTerritory The territory to get the closest frontile distance for
-     * @return The distance to the closest frontline
+     * @param rollout The rollout state, in the occupy phase
+     * @param random  The random generator to use
+     * @return The number of troops to move into the conquered territory
      */
-    private static int getFrontlineDistance(Risk risk, RiskBoard riskBoard, int sourceTerritory) {
-        Set<Integer> curLevelTerritories = Set.of(sourceTerritory);
-        Set<Integer> evaluatedTerritories = new HashSet<>();
-        Set<Integer> nextLevelTerritories;
-        int curDistance = 0;
-        while (!curLevelTerritories.isEmpty()) {
-            nextLevelTerritories = new HashSet<>();
-            for (Integer srcId : curLevelTerritories) {
-                if (! riskBoard.neighboringEnemyTerritories(srcId).isEmpty()) {
-                    return curDistance;
-                }
-                evaluatedTerritories.add(srcId);
-                Set<Integer> newNeighbors = riskBoard.neighboringFriendlyTerritories(srcId);
-                newNeighbors.removeAll(evaluatedTerritories);
-                newNeighbors.removeAll(curLevelTerritories);
-                nextLevelTerritories.addAll(newNeighbors);
+    public static int selectRolloutOccupation(RolloutRisk rollout, Random random) {
+        return selectRolloutOccupation(rollout, random, false);
+    }
+
+    /**
+     * Select the troops to occupy a newly conquered territory with during a deterministic rollout.
+     * The same rules as for the actions generated for the MCTS apply, if they allow multiple amounts, the one in
+     * between is selected (half of the troops, or the share by the enemy neighbours if both territories are on the
+     * frontline).
+     *
+     * @param rollout The rollout state, in the occupy phase
+     * @return The number of troops to move into the conquered territory
+     */
+    public static int selectExpectedRolloutOccupation(RolloutRisk rollout) {
+        return selectRolloutOccupation(rollout, null, true);
+    }
+
+    private static int selectRolloutOccupation(RolloutRisk rollout, Random random, boolean deterministic) {
+        int srcTerritory = rollout.getAttackingId();
+        int targetTerritory = rollout.getDefendingId();
+        int maxTroops = Math.max(1, rollout.getMobileTroops(srcTerritory));
+        FrontlineDistanceField distanceField = FrontlineDistanceField.of(rollout).withOccupied(targetTerritory);
+        int srcEnemyNeighbors = distanceField.countEnemyNeighbors(srcTerritory);
+        int targetEnemyNeighbors = distanceField.countEnemyNeighbors(targetTerritory);
+        boolean isSrcSafe = srcEnemyNeighbors == 0;
+        boolean isTargetSafe = targetEnemyNeighbors == 0;
+
+        if (isTargetSafe && !isSrcSafe) {
+            return 1;
+        } else if (isSrcSafe && !isTargetSafe) {
+            return maxTroops;
+        }
+        if (isTargetSafe) {
+            int srcFrontlineDistance = distanceField.getDistance(srcTerritory);
+            int targetFrontlineDistance = distanceField.getDistance(targetTerritory);
+            if (srcFrontlineDistance != targetFrontlineDistance) {
+                return srcFrontlineDistance < targetFrontlineDistance ? 1 : maxTroops;
             }
-            curDistance += 1;
-            curLevelTerritories = nextLevelTerritories;
+            if (deterministic) {
+                return (maxTroops + 1) / 2;
+            }
+            return random.nextBoolean() ? 1 : maxTroops;
         }
-
-        if (risk.isGameOver()) {
-            return Integer.MAX_VALUE;
+        double targetFrontlineTerritoryRatio = targetEnemyNeighbors * 1.0 / (targetEnemyNeighbors + srcEnemyNeighbors);
+        long ratioTroops = Math.round(maxTroops * targetFrontlineTerritoryRatio);
+        if (deterministic) {
+            return (int) Math.max(1, ratioTroops);
+        }
+        int options = ratioTroops > 1 ? 3 : 2;
+        switch (random.nextInt(options)) {
+            case 0:
+                return 1;
+            case 1:
+                return maxTroops;
+            default:
+                return (int) ratioTroops;
         }
-        throw new IllegalStateException("Found disconnected region - illegal risk board");
     }
 }
@@ -0,0 +1,113 @@
+package at.ac.tuwien.ifs.sge.leeroy.agents;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.SortedMap;
+
+/**
+ * The best replies of the initial placement per occupation, computed offline by the OpeningBookBuilder.
+ * The file consists of a header (magic number, version, layout key of the board, number of entries) followed by the
+ * entries sorted by the occupation hash (see ZobristHash.ofOccupation), each one is the hash and the territory to
+ * occupy. The file is memory mapped and searched binary, so loading it costs nothing and a lookup only touches the few
+ * pages on the way.
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x4C42_4F4B; // LBOK
+    // version 2: the layout key includes the borders and continent bonuses
+    // version 3: the replies are ranked by the search instead of in territory id order
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int ENTRY_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final long layoutKey;
+    private final int size;
+
+    private OpeningBook(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException("Not an opening book of this version");
+        }
+        this.layoutKey = buffer.getLong(2 * Integer.BYTES);
+        this.size = buffer.getInt(2 * Integer.BYTES + Long.BYTES);
+        if ((long) HEADER_BYTES + (long) size * ENTRY_BYTES > buffer.limit()) {
+            throw new IOException("Truncated opening book");
+        }
+    }
+
+    /**
+     * Map an opening book file into memory
+     *
+     * @param file The book file
+     * @return The opening book
+     * @throws IOException If the file can not be read or is no opening book
+     */
+    public static OpeningBook load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write an opening book file
+     *
+     * @param file      The book file, it is replaced if it exists
+     * @param layoutKey The layout key of the board the book is computed for (see BoardTopology.getLayoutKey)
+     * @param replies   The territory to occupy per occupation hash
+     * @throws IOException If the file can not be written
+     */
+    public static void write(Path file, long layoutKey, SortedMap<Long, Integer> replies) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(HEADER_BYTES + replies.size() * ENTRY_BYTES);
+        content.putInt(MAGIC).putInt(VERSION).putLong(layoutKey).putInt(replies.size());
+        for (Map.Entry<Long, Integer> reply : replies.entrySet()) {
+            content.putLong(reply.getKey()).putInt(reply.getValue());
+        }
+        content.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+
+    /**
+     * @return The layout key of the board the book is computed for (see BoardTopology.getLayoutKey)
+     */
+    public long getLayoutKey() {
+        return layoutKey;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param occupationHash The hash of the occupation of the board
+     * @return The territory to occupy, empty if the occupation is not in the book
+     */
+    public OptionalInt getReply(long occupationHash) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = HEADER_BYTES + middle * ENTRY_BYTES;
+            long hash = buffer.getLong(offset);
+            if (hash < occupationHash) {
+                low = middle + 1;
+            } else if (hash > occupationHash) {
+                high = middle - 1;
+            } else {
+                return OptionalInt.of(buffer.getInt(offset + Long.BYTES));
+            }
+        }
+        return OptionalInt.empty();
+    }
+}
@@ -3,25 +3,21 @@ package at.ac.tuwien.ifs.sge.leeroy.agents;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
 import at.ac.tuwien.ifs.sge.leeroy.mcts.ActionNode;
+import at.ac.tuwien.ifs.sge.util.Util;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * This class contains the methods for generating reinforcement actions (at the start of the players turn)
  * For our agent, we just want to reinforce territories which are neighbour to an enemy territory.
- * If the heap is large enough, we can use the improved heuristic to find beneficial
- * reinforcement actions, if not we fall back to selecting actions at random.
+ * The improved heuristic ranks all of them in one pass (see HeuristicReinforce.rankReinforcements), only if it finds
+ * none we fall back to a random reinforcement action.
+ * At the start of the turn card trade-ins come first, followed by the reinforcement actions in the order the heuristic
+ * ranks them, so progressive widening opens the trade-ins before the lower ranked reinforcements.
  */
 public class ReinforcementActionSupplier {
     private static final int BRANCHING_FACTOR = 3;
-    private static final int NEEDED_HEAP_GB = 8;
-    private static final boolean CAN_USE_IMPROVED_HEURISTIC = Runtime.getRuntime().maxMemory() > NEEDED_HEAP_GB * Math.pow(10, 9);
-    private static final Random randomizer = new Random();
 
 
     /**
@@ -34,6 +30,18 @@ public class ReinforcementActionSupplier {
      * @return The actions we could/want to do from here on.
      */
     public static Stream<RiskAction> getSuccessors(ActionNode selectedNode, RiskBoard riskBoard) {
+        return getSuccessors(selectedNode, riskBoard, BRANCHING_FACTOR);
+    }
+
+    /**
+     * Get the reinforcement actions
+     *
+     * @param selectedNode    The node to expand
+     * @param riskBoard       The board status at the selected node.
+     * @param branchingFactor The maximum number of reinforcement actions to generate
+     * @return The actions we could/want to do from here on, trade-ins first, then the best ranked reinforcement.
+     */
+    public static Stream<RiskAction> getSuccessors(ActionNode selectedNode, RiskBoard riskBoard, int branchingFactor) {
         var game = selectedNode.getGame();
         var validActions = game.getPossibleActions();
         var tradeInActions = validActions.stream()
@@ -44,29 +52,18 @@ public class ReinforcementActionSupplier {
             //We have to trade in
             return tradeInActions;
         } else {
+            var rankedActions = HeuristicReinforce.rankReinforcements(game.getCurrentPlayer(), riskBoard,
+                    selectedNode.getTopology(), validActions, branchingFactor);
             Stream<RiskAction> reinforcementActions;
-            if (CAN_USE_IMPROVED_HEURISTIC) {
-                var allPossibleActions = new HashSet<>(game.getPossibleActions());
-                var allTerritories = new HashMap<>(riskBoard.getTerritories());
-                HashSet<RiskAction> reinforcementActionsSet = new HashSet<>();
-                while (reinforcementActionsSet.size() < BRANCHING_FACTOR && reinforcementActionsSet.size() < allPossibleActions.size()) {
-                    var action = HeuristicReinforce.reinforce(game.getCurrentPlayer(), riskBoard, allPossibleActions, allTerritories);
-                    reinforcementActionsSet.add(action);
-                    allPossibleActions.remove(action);
-                    allTerritories.remove(action.reinforcedId());
-                }
-                reinforcementActions = reinforcementActionsSet.stream();
+            if (!rankedActions.isEmpty()) {
+                reinforcementActions = rankedActions.stream();
             } else {
-                var reinforcementActionsList = validActions
+                var possibleReinforcements = validActions
                         .stream()
                         .filter(GameUtils::isReinforcementAction)
-                        .filter(riskAction -> riskBoard.neighboringEnemyTerritories(riskAction.reinforcedId()).size() > 0)
                         .collect(Collectors.toList());
-                var reinforcementActionsSet = new LinkedList<RiskAction>();
-                while (reinforcementActionsSet.size() < BRANCHING_FACTOR && reinforcementActionsSet.size() != reinforcementActionsList.size()) {
-                    reinforcementActionsSet.add(reinforcementActionsList.get(randomizer.nextInt(reinforcementActionsList.size())));
-                }
-                reinforcementActions = reinforcementActionsSet.stream();
+                reinforcementActions = possibleReinforcements.isEmpty() ?
+                        Stream.empty() : Stream.of(Util.selectRandom(possibleReinforcements));
             }
             var atStartOfTurn = !GameUtils.isReinforcementAction(game.getPreviousAction());
             if (atStartOfTurn) {
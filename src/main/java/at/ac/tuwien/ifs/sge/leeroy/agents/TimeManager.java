@@ -0,0 +1,231 @@
+package at.ac.tuwien.ifs.sge.leeroy.agents;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * This class decides how much of the computation time of a move is spent searching.
+ * The share of the time depends on the phase, the number of legal actions and the progress of the game. Forced moves
+ * are not searched at all, and critical attack decisions (conquering or breaking a continent) get the full time the
+ * other moves leave unused. A search can also stop early once its leading action has been stable for a while.
+ * The time lost outside of the search (setup, garbage collection, ...) is measured over the last moves and kept free.
+ */
+public class TimeManager {
+
+    /**
+     * share of the computation time used per phase, critical attacks use the whole (safe) computation time
+     */
+    private static final double INITIAL_SELECT_SHARE = 1e-7;
+    private static final double CRITICAL_ATTACK_SHARE = 1;
+    private static final double ATTACK_SHARE = 0.6;
+    private static final double OCCUPY_SHARE = 0.5;
+    private static final double REINFORCE_SHARE = 0.5;
+    private static final double DEFAULT_SHARE = 0.5;
+
+    private static final double SAFETY_SHARE = 0.95; // never plan with more of the computation time
+    private static final int FULL_BRANCHING = 16; // from this many legal actions on, the full phase share is used
+    private static final double MIN_BRANCHING_SHARE = 0.25;
+    private static final double DECIDED_GAME_SHARE = 0.75; // less time once the game is (almost) decided
+    private static final double DECIDED_TERRITORY_SHARE_HIGH = 0.7;
+    private static final double DECIDED_TERRITORY_SHARE_LOW = 0.15;
+
+    private static final double MIN_SHARE_BEFORE_STABLE_STOP = 0.4; // never stop for stability before this share of the budget
+    private static final double STABLE_SHARE = 0.25; // stop if the leader did not change for this share of the budget
+    private static final long LEADER_CHECK_INTERVAL_NANOS = 1_000_000;
+    private static final int MEASURED_MOVES = 5;
+
+    private final long[] recentOverheadNanos = new long[MEASURED_MOVES];
+    private int nextOverheadIndex = 0;
+
+    private long moveStartNanos;
+    private long budgetNanos;
+    private boolean forcedMove;
+    private RiskAction forcedAction;
+    private volatile boolean stopped;
+
+    private Supplier<?> leader = null;
+    private Object lastLeader = null;
+    private long leaderSinceNanos;
+    private volatile long lastLeaderCheckNanos;
+
+    /**
+     * Plan the time of a new move, has to be called at the start of every move
+     *
+     * @param risk                 The risk game
+     * @param computationTimeNanos The computation time of the move
+     * @param initialSelect        Whether the move selects an initial territory
+     */
+    public synchronized void startMove(Risk risk, long computationTimeNanos, boolean initialSelect) {
+        moveStartNanos = System.nanoTime();
+        stopped = false;
+        leader = null;
+        lastLeader = null;
+        leaderSinceNanos = moveStartNanos;
+        lastLeaderCheckNanos = moveStartNanos;
+
+        Set<RiskAction> possibleActions = risk.getPossibleActions();
+        forcedMove = !initialSelect && possibleActions.size() == 1;
+        forcedAction = forcedMove ? possibleActions.iterator().next() : null;
+        if (forcedMove) {
+            budgetNanos = 0;
+            return;
+        }
+
+        double share = getShare(risk, possibleActions, initialSelect);
+        long overheadNanos = Arrays.stream(recentOverheadNanos).max().orElse(0);
+        budgetNanos = Math.max(0, Math.round(computationTimeNanos * SAFETY_SHARE * share) - overheadNanos);
+    }
+
+    /**
+     * Measure the time the move took outside of the search, has to be called at the end of every move
+     */
+    public synchronized void finishMove() {
+        long elapsedNanos = System.nanoTime() - moveStartNanos;
+        recentOverheadNanos[nextOverheadIndex] = Math.max(0, elapsedNanos - budgetNanos);
+        nextOverheadIndex = (nextOverheadIndex + 1) % MEASURED_MOVES;
+    }
+
+    /**
+     * @return Whether the move is forced (only one legal action), it does not need to be searched
+     */
+    public boolean isForcedMove() {
+        return forcedMove;
+    }
+
+    /**
+     * @return The only legal action of a forced move, null otherwise
+     */
+    public RiskAction getForcedAction() {
+        return forcedAction;
+    }
+
+    /**
+     * Watch the leading action of the search of this move, the search is stopped early if it stays the same
+     *
+     * @param leader Supplies the action currently leading the search (null if there is none yet)
+     */
+    public synchronized void watchLeader(Supplier<?> leader) {
+        this.leader = leader;
+    }
+
+    /**
+     * Check whether the search of this move should stop, can be called by multiple threads at once
+     *
+     * @return Whether the search should stop
+     */
+    public boolean shouldStop() {
+        if (stopped) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long elapsedNanos = now - moveStartNanos;
+        if (elapsedNanos >= budgetNanos) {
+            stopped = true;
+        } else if (elapsedNanos >= budgetNanos * MIN_SHARE_BEFORE_STABLE_STOP
+                && now - lastLeaderCheckNanos >= LEADER_CHECK_INTERVAL_NANOS && isLeaderStable(now)) {
+            stopped = true;
+        }
+        return stopped;
+    }
+
+    /**
+     * @return The nanoseconds left until the search of this move has to stop, negative if the time is already up
+     */
+    public long nanosLeft() {
+        return moveStartNanos + budgetNanos - System.nanoTime();
+    }
+
+    private synchronized boolean isLeaderStable(long now) {
+        if (leader == null || now - lastLeaderCheckNanos < LEADER_CHECK_INTERVAL_NANOS) {
+            return false;
+        }
+        lastLeaderCheckNanos = now;
+        Object currentLeader = leader.get();
+        if (currentLeader == null || !Objects.equals(currentLeader, lastLeader)) {
+            lastLeader = currentLeader;
+            leaderSinceNanos = now;
+            return false;
+        }
+        return now - leaderSinceNanos >= budgetNanos * STABLE_SHARE;
+    }
+
+    private static double getShare(Risk risk, Set<RiskAction> possibleActions, boolean initialSelect) {
+        if (initialSelect) {
+            return INITIAL_SELECT_SHARE;
+        }
+        RiskBoard board = risk.getBoard();
+        if (board.isAttackPhase() && isCriticalAttack(risk, board, possibleActions)) {
+            return CRITICAL_ATTACK_SHARE;
+        }
+
+        double share;
+        if (board.isAttackPhase()) {
+            share = ATTACK_SHARE;
+        } else if (board.isOccupyPhase()) {
+            share = OCCUPY_SHARE;
+        } else if (board.isReinforcementPhase()) {
+            share = REINFORCE_SHARE;
+        } else {
+            share = DEFAULT_SHARE;
+        }
+        // few legal actions are decided quickly
+        double branchingShare = Math.log(possibleActions.size()) / Math.log(FULL_BRANCHING);
+        share *= Math.max(MIN_BRANCHING_SHARE, Math.min(1, branchingShare));
+        if (isDecided(risk, board)) {
+            share *= DECIDED_GAME_SHARE;
+        }
+        return share;
+    }
+
+    /**
+     * An attack is critical if one of the attackable territories is the last one we miss of a continent, or if it
+     * breaks a continent fully occupied by an enemy.
+     */
+    private static boolean isCriticalAttack(Risk risk, RiskBoard board, Set<RiskAction> possibleActions) {
+        int player = risk.getCurrentPlayer();
+        if (player < 0) {
+            return false;
+        }
+        Map<Integer, RiskTerritory> territories = board.getTerritories();
+        Set<Integer> attackedContinents = new HashSet<>();
+        for (RiskAction action : possibleActions) {
+            if (!action.isEndPhase() && territories.containsKey(action.defendingId())) {
+                attackedContinents.add(territories.get(action.defendingId()).getContinentId());
+            }
+        }
+        for (Integer continentId : attackedContinents) {
+            Set<Integer> occupants = new HashSet<>();
+            int missingTerritories = 0;
+            for (RiskTerritory territory : territories.values()) {
+                if (territory.getContinentId() == continentId) {
+                    occupants.add(territory.getOccupantPlayerId());
+                    if (territory.getOccupantPlayerId() != player) {
+                        missingTerritories++;
+                    }
+                }
+            }
+            if (missingTerritories == 1 || (occupants.size() == 1 && !occupants.contains(player))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDecided(Risk risk, RiskBoard board) {
+        int player = risk.getCurrentPlayer();
+        if (player < 0) {
+            return false;
+        }
+        double territoryShare = board.getTerritoriesOccupiedByPlayer(player).size() / (double) board.getTerritories().size();
+        return territoryShare > DECIDED_TERRITORY_SHARE_HIGH || territoryShare < DECIDED_TERRITORY_SHARE_LOW;
+    }
+}
@@ -3,40 +3,121 @@ package at.ac.tuwien.ifs.sge.leeroy.mcts;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import lombok.AccessLevel;
 import lombok.Getter;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
 
 /**
  * This class models a node in the tree for the MCTS during the main game turns (reinforce, attack, occupy)
- * To save space and time, the risk board is cached in this node.
+ * To save space and time, the game state of a successor is only created once it is needed, and the risk board is
+ * cached in this node. Under memory pressure the state cache can evict the game and board of cold nodes again, they
+ * are rebuilt from the closest ancestor still holding its state.
+ * The statistics are kept in atomic counters, so the node can be part of a tree searched by multiple threads at once.
+ * If another node already reached the same game state, this node can be linked to it as a transposition, and then
+ * shares the successors, statistics, and evaluation of that node.
+ * Casualty states are chance nodes: their successors are the dice outcomes, each carrying its probability.
+ * The topology of the board is looked up once for the root and handed down to all successors, so the heuristics
+ * working on a node never have to look it up from the node's board again.
  */
 @Getter
 public class ActionNode {
 
     private final int player;
-    private final ActionNode parent;
-    private final Risk game;
-    private RiskBoard board;
+    private volatile ActionNode parent;
+    private volatile Risk game;
+    private volatile RiskBoard board;
+    private StateCache stateCache;
+    private BoardTopology topology;
+    // set whenever the state is used, cleared by the sweeping hand of the state cache
+    @Getter(AccessLevel.NONE)
+    private volatile boolean referenced = false;
     private final RiskAction action;
-    private List<ActionNode> successors = null;
-    private double winScore;
-    private int visitCount = 0;
+    private final double probability;
+    private volatile List<ActionNode> successors = null;
+    private final DoubleAdder winScore = new DoubleAdder();
+    private final AtomicInteger visitCount = new AtomicInteger();
+    private final AtomicInteger virtualLoss = new AtomicInteger();
+    private volatile Integer evaluation = null;
+    private volatile BoardFeatures features = null;
+    private volatile boolean progressivelyWidened = false;
+    private volatile boolean chanceNode = false;
+    private volatile ActionNode transposition = null;
 
     public ActionNode(int player, ActionNode parent, Risk game, RiskAction action) {
+        this(player, parent, game, action, 1);
+    }
+
+    private ActionNode(int player, ActionNode parent, Risk game, RiskAction action, double probability) {
         this.player = player;
         this.parent = parent;
         this.game = game;
         this.action = action;
+        this.probability = probability;
+        this.stateCache = parent != null ? parent.stateCache : null;
+        this.topology = parent != null ? parent.getTopology() : null;
+    }
+
+    /**
+     * Create a successor node whose game state is only computed when it is first needed
+     *
+     * @param player The player of the node
+     * @param parent The parent node
+     * @param action The action leading from the parent to this node
+     */
+    public ActionNode(int player, ActionNode parent, RiskAction action) {
+        this(player, parent, null, action);
+    }
+
+    /**
+     * Create an outcome of a chance node, its game state is only computed when it is first needed
+     *
+     * @param player      The player of the node
+     * @param parent      The chance node
+     * @param action      The outcome leading from the chance node to this node
+     * @param probability The probability of the outcome
+     */
+    public ActionNode(int player, ActionNode parent, RiskAction action, double probability) {
+        this(player, parent, null, action, probability);
     }
 
     public List<ActionNode> getSuccessors() {
-        return successors;
+        return representative().successors;
     }
 
     public void setSuccessors(List<ActionNode> actionNodes) {
-        this.successors = actionNodes;
+        representative().successors = actionNodes;
+    }
+
+    /**
+     * Share successors, statistics and evaluation with a node which reached the same game state.
+     * The action and the parent of this node stay its own.
+     *
+     * @param node The node reached first with the same game state
+     */
+    public void linkTransposition(ActionNode node) {
+        this.transposition = node.representative();
+    }
+
+    public boolean isTransposition() {
+        return transposition != null;
+    }
+
+    /**
+     * @return The object to synchronize on while expanding this node, shared by all transpositions of the node
+     */
+    public Object getExpansionLock() {
+        return representative();
+    }
+
+    private ActionNode representative() {
+        return transposition != null ? transposition : this;
     }
 
     public boolean isLeafNode() {
@@ -54,22 +135,227 @@ public class ActionNode {
         return Optional.of(this.parent);
     }
 
+    public double getWinScore() {
+        return representative().winScore.sum();
+    }
+
+    public int getVisitCount() {
+        return representative().visitCount.get();
+    }
+
+    /**
+     * @return The number of threads currently searching below this node
+     */
+    public int getVirtualLoss() {
+        return representative().virtualLoss.get();
+    }
+
     public void incrementVisitCount() {
-        visitCount += 1;
+        representative().visitCount.incrementAndGet();
     }
 
     public void incrementWinScore(double increment) {
-        winScore += increment;
+        representative().winScore.add(increment);
+    }
+
+    /**
+     * Add the statistics of multiple visits at once
+     *
+     * @param visits The number of visits to add
+     * @param score  The score gathered during those visits
+     */
+    public void addStatistics(int visits, double score) {
+        representative().visitCount.addAndGet(visits);
+        representative().winScore.add(score);
+    }
+
+    public void addVirtualLoss() {
+        representative().virtualLoss.incrementAndGet();
+    }
+
+    public void removeVirtualLoss() {
+        representative().virtualLoss.decrementAndGet();
     }
 
     public boolean isExpanded() {
-        return successors != null;
+        return representative().successors != null;
+    }
+
+    /**
+     * @return Whether the successors of this node are ordered by priority and only opened up gradually
+     */
+    public boolean isProgressivelyWidened() {
+        return representative().progressivelyWidened;
+    }
+
+    public void setProgressivelyWidened(boolean progressivelyWidened) {
+        representative().progressivelyWidened = progressivelyWidened;
+    }
+
+    /**
+     * @return Whether the successors of this node are outcomes of chance, selected by their probability
+     */
+    public boolean isChanceNode() {
+        return representative().chanceNode;
+    }
+
+    public void setChanceNode(boolean chanceNode) {
+        representative().chanceNode = chanceNode;
+    }
+
+    /**
+     * @return The probability of this node being the outcome of its parent, if that is a chance node
+     */
+    public double getProbability() {
+        return probability;
+    }
+
+    /**
+     * @return The evaluation of the game state of this node, null if it has not been evaluated yet
+     */
+    public Integer getEvaluation() {
+        return representative().evaluation;
+    }
+
+    public void setEvaluation(int evaluation) {
+        representative().evaluation = evaluation;
+    }
+
+    /**
+     * @return The evaluation features of the game state of this node, null if they have not been computed yet
+     */
+    public BoardFeatures getFeatures() {
+        return representative().features;
+    }
+
+    public void setFeatures(BoardFeatures features) {
+        representative().features = features;
+    }
+
+    /**
+     * Get the game state of the node, it is built by replaying the actions from the closest ancestor still holding
+     * its state if necessary.
+     * Using the state only marks the node as referenced for the state cache, which takes no lock.
+     *
+     * @return The game state of this node
+     */
+    public Risk getGame() {
+        Risk currentGame = game;
+        if (currentGame == null) {
+            return materialize();
+        }
+        if (!referenced) {
+            // only written if it changes, so hot nodes are not written by every thread on every visit
+            referenced = true;
+        }
+        return currentGame;
     }
 
     public RiskBoard getBoard() {
-        if (this.board == null) {
-            this.board = game.getBoard();
+        RiskBoard currentBoard = board;
+        if (currentBoard == null) {
+            currentBoard = getGame().getBoard();
+            this.board = currentBoard;
+        }
+        return currentBoard;
+    }
+
+    /**
+     * @return The topology of the board, shared by all nodes of the tree
+     */
+    public BoardTopology getTopology() {
+        BoardTopology currentTopology = topology;
+        if (currentTopology == null) {
+            // only for roots, their successors take it over on creation
+            currentTopology = BoardTopology.of(getBoard());
+            topology = currentTopology;
+        }
+        return currentTopology;
+    }
+
+    /**
+     * Set the topology of the board for this node and its future successors, e.g. to share it between trees
+     *
+     * @param topology The topology of the board of this node
+     */
+    public void setTopology(BoardTopology topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * @return Whether this node currently holds its game state
+     */
+    public boolean isMaterialized() {
+        return game != null;
+    }
+
+    /**
+     * Set the cache limiting the number of game states held by this node and its future successors
+     *
+     * @param stateCache The cache to use
+     */
+    public void setStateCache(StateCache stateCache) {
+        this.stateCache = stateCache;
+    }
+
+    /**
+     * Make this node the root of a new search on the actual game, the subtree and statistics of the node are kept.
+     * The link to the old parent is cut, so the rest of the old tree can be collected.
+     *
+     * @param actualGame The actual game, in the same state as this node
+     */
+    public synchronized void reroot(Risk actualGame) {
+        this.game = actualGame;
+        this.board = null;
+        this.parent = null;
+    }
+
+    /**
+     * Clear the referenced flag as the hand of the state cache passes this node
+     *
+     * @return Whether the state was used since the hand passed last
+     */
+    boolean clearReferenced() {
+        boolean wasReferenced = referenced;
+        referenced = false;
+        return wasReferenced;
+    }
+
+    /**
+     * Drop the game state and board of this node, unless it is a root node which could not rebuild them
+     */
+    synchronized void evictState() {
+        if (parent != null) {
+            game = null;
+            board = null;
+        }
+    }
+
+    private Risk materialize() {
+        Risk replayedGame;
+        synchronized (this) {
+            if (game != null) {
+                return game;
+            }
+            Deque<RiskAction> actionsToReplay = new ArrayDeque<>();
+            ActionNode ancestor = this;
+            Risk ancestorGame = null;
+            while (ancestorGame == null) {
+                actionsToReplay.push(ancestor.action);
+                ancestor = ancestor.parent;
+                ancestorGame = ancestor.game;
+            }
+            replayedGame = ancestorGame;
+            for (RiskAction actionToReplay : actionsToReplay) {
+                replayedGame = (Risk) replayedGame.doAction(actionToReplay);
+            }
+            game = replayedGame;
+            referenced = true;
+        }
+        // registered outside of the node's lock, since the cache locks the node it evicts
+        if (stateCache != null) {
+            stateCache.add(this);
         }
-        return board;
+        return replayedGame;
     }
 }
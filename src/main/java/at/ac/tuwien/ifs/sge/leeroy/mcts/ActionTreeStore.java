@@ -0,0 +1,280 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact store for the MCTS tree during the main game turns (reinforce, attack, occupy).
+ * Nodes are addressed by their int index, and the structure and statistics of the tree are kept in parallel primitive
+ * arrays, so selection and backpropagation are plain array walks without allocations.
+ * The successors of a node are stored contiguously, starting at its first child index.
+ * The ActionNodes are only kept for the game states, which are needed for expansion, evaluation, and simulation.
+ * The outcomes of chance nodes are sampled by their probability, and their statistics are weighted by it.
+ * A store is used by a single thread.
+ */
+class ActionTreeStore {
+
+    static final int NO_NODE = -1;
+    static final long NO_ACTION = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] childCount = new int[INITIAL_CAPACITY];
+    private int[] player = new int[INITIAL_CAPACITY];
+    private int[] visits = new int[INITIAL_CAPACITY];
+    private double[] score = new double[INITIAL_CAPACITY];
+    private long[] action = new long[INITIAL_CAPACITY];
+    private boolean[] chance = new boolean[INITIAL_CAPACITY];
+    private double[] probability = new double[INITIAL_CAPACITY];
+    // statistics the nodes already had when they were added, so only the difference is written back
+    private int[] importedVisits = new int[INITIAL_CAPACITY];
+    private double[] importedScore = new double[INITIAL_CAPACITY];
+    private ActionNode[] nodes = new ActionNode[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Create a store containing only the root node
+     *
+     * @param root The root of the search
+     */
+    ActionTreeStore(ActionNode root) {
+        add(root, NO_NODE);
+    }
+
+    /**
+     * Pack the identifying fields of an action into a single long
+     *
+     * @param riskAction The action to pack
+     * @return The packed action (attacking id, defending id, and troops), NO_ACTION for the root
+     */
+    static long packAction(RiskAction riskAction) {
+        if (riskAction == null) {
+            return NO_ACTION;
+        }
+        return ((long) (riskAction.attackingId() & 0xFFFF) << 48)
+                | ((long) (riskAction.defendingId() & 0xFFFF) << 32)
+                | (riskAction.troops() & 0xFFFFFFFFL);
+    }
+
+    int getRoot() {
+        return 0;
+    }
+
+    ActionNode getNode(int index) {
+        return nodes[index];
+    }
+
+    long getAction(int index) {
+        return action[index];
+    }
+
+    int getVisits(int index) {
+        return visits[index];
+    }
+
+    boolean isExpanded(int index) {
+        return firstChild[index] != NO_NODE;
+    }
+
+    boolean hasChildren(int index) {
+        return childCount[index] > 0;
+    }
+
+    boolean isChanceNode(int index) {
+        return chance[index];
+    }
+
+    /**
+     * Sample an outcome of a chance node by the probabilities of the outcomes
+     *
+     * @param index  The index of the (expanded) chance node
+     * @param random A uniformly distributed number in [0, 1)
+     * @return The index of the sampled outcome
+     */
+    int sampleChild(int index, double random) {
+        int end = firstChild[index] + childCount[index];
+        double remaining = random;
+        for (int child = firstChild[index]; child < end - 1; child++) {
+            remaining -= probability[child];
+            if (remaining < 0) {
+                return child;
+            }
+        }
+        return end - 1;
+    }
+
+    /**
+     * The mean score of a visited node, the outcomes of a chance node are weighted by their probability
+     */
+    private double getMeanScore(int index) {
+        double ownMean = score[index] / visits[index];
+        if (!chance[index] || !isExpanded(index)) {
+            return ownMean;
+        }
+        double mean = 0;
+        int end = firstChild[index] + childCount[index];
+        for (int child = firstChild[index]; child < end; child++) {
+            mean += probability[child] * (visits[child] > 0 ? score[child] / visits[child] : ownMean);
+        }
+        return mean;
+    }
+
+    /**
+     * Add the successors of a node to the store
+     *
+     * @param index      The index of the node
+     * @param successors The successor nodes, in the order they were generated
+     */
+    void expand(int index, List<ActionNode> successors) {
+        firstChild[index] = size;
+        childCount[index] = successors.size();
+        chance[index] = nodes[index].isChanceNode();
+        for (ActionNode successor : successors) {
+            add(successor, index);
+        }
+    }
+
+    /**
+     * Get the index of a successor
+     *
+     * @param index     The index of the (expanded) node
+     * @param successor The successor to look for
+     * @return The index of the successor, NO_NODE if it is not a successor of the node
+     */
+    int getChild(int index, ActionNode successor) {
+        int end = firstChild[index] + childCount[index];
+        for (int child = firstChild[index]; child < end; child++) {
+            if (nodes[child] == successor) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Get the successor with the best UCT value
+     *
+     * @param index The index of the (expanded) node
+     * @param limit The number of successors which may be selected (progressive widening)
+     * @return The index of the successor with the highest UCT value
+     */
+    int getBestChild(int index, int limit) {
+        int start = firstChild[index];
+        int end = start + Math.max(1, Math.min(childCount[index], limit));
+        double logParentVisits = Math.log(visits[index]);
+        int bestChild = start;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = start; child < end; child++) {
+            double value;
+            if (visits[child] == 0) {
+                value = Integer.MAX_VALUE;
+            } else {
+                value = getMeanScore(child) + 1.414 * Math.sqrt(logParentVisits / visits[child]);
+            }
+            if (value > bestValue) {
+                bestValue = value;
+                bestChild = child;
+            }
+        }
+        return bestChild;
+    }
+
+    /**
+     * @param index The index of the (expanded) node
+     * @return The visits of the successors of the node per action
+     */
+    Map<RiskAction, Integer> getVisitsByAction(int index) {
+        Map<RiskAction, Integer> visitsByAction = new HashMap<>();
+        int end = firstChild[index] + childCount[index];
+        for (int child = firstChild[index]; child < end; child++) {
+            visitsByAction.merge(nodes[child].getAction(), visits[child], Integer::sum);
+        }
+        return visitsByAction;
+    }
+
+    /**
+     * @param index The index of the (expanded) node
+     * @return The index of the most visited successor (the score breaks ties), NO_NODE if the node has none
+     */
+    int getMostVisitedChild(int index) {
+        int mostVisited = NO_NODE;
+        int end = firstChild[index] + childCount[index];
+        for (int child = firstChild[index]; child < end; child++) {
+            if (mostVisited == NO_NODE || visits[child] > visits[mostVisited]
+                    || (visits[child] == visits[mostVisited] && score[child] > score[mostVisited])) {
+                mostVisited = child;
+            }
+        }
+        return mostVisited;
+    }
+
+    /**
+     * Update the statistics from a node up to the root
+     *
+     * @param index         The index of the node the result was obtained for
+     * @param scoringPlayer The player whose nodes get the result added to their score
+     * @param result        The result of the play out
+     */
+    void backpropagate(int index, int scoringPlayer, int result) {
+        for (int node = index; node != NO_NODE; node = parent[node]) {
+            visits[node] += 1;
+            if (player[node] == scoringPlayer) {
+                score[node] += result;
+            }
+        }
+    }
+
+    /**
+     * Add the statistics gathered in this store to the ActionNodes, so they can be used for selecting the best action
+     * and reused in later searches.
+     */
+    void writeBack() {
+        for (int index = 0; index < size; index++) {
+            int addedVisits = visits[index] - importedVisits[index];
+            if (addedVisits > 0) {
+                nodes[index].addStatistics(addedVisits, score[index] - importedScore[index]);
+            }
+        }
+    }
+
+    private void add(ActionNode node, int parentIndex) {
+        if (size == nodes.length) {
+            grow();
+        }
+        parent[size] = parentIndex;
+        firstChild[size] = NO_NODE;
+        childCount[size] = 0;
+        player[size] = node.getPlayer();
+        visits[size] = node.getVisitCount();
+        score[size] = node.getWinScore();
+        importedVisits[size] = visits[size];
+        importedScore[size] = score[size];
+        action[size] = packAction(node.getAction());
+        chance[size] = node.isChanceNode();
+        probability[size] = node.getProbability();
+        nodes[size] = node;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = nodes.length * 2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        childCount = Arrays.copyOf(childCount, capacity);
+        player = Arrays.copyOf(player, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+        score = Arrays.copyOf(score, capacity);
+        action = Arrays.copyOf(action, capacity);
+        chance = Arrays.copyOf(chance, capacity);
+        probability = Arrays.copyOf(probability, capacity);
+        importedVisits = Arrays.copyOf(importedVisits, capacity);
+        importedScore = Arrays.copyOf(importedScore, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+    }
+}
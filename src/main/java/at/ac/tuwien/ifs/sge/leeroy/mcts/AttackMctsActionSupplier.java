@@ -4,12 +4,17 @@ import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
 import at.ac.tuwien.ifs.sge.leeroy.agents.AttackActionSupplier;
+import at.ac.tuwien.ifs.sge.leeroy.agents.BattleSimulator;
 import at.ac.tuwien.ifs.sge.leeroy.agents.GameUtils;
 import at.ac.tuwien.ifs.sge.leeroy.agents.OccupyActionSupplier;
 import at.ac.tuwien.ifs.sge.leeroy.agents.ReinforcementActionSupplier;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.RolloutRisk;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.ZobristHash;
 import at.ac.tuwien.ifs.sge.util.Util;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
@@ -31,11 +36,84 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
     private static final double UNUSED_TROOPS_PENALTY_FACTOR = -0.5; // malus for inefficient attack/occupy
 
     private final static int MAX_ATTACK_TROOPS = 3;
+    // dice outcomes less likely than this are not added to the tree
+    private static final double NEGLIGIBLE_OUTCOME_PROBABILITY = 0.01;
+
+    /**
+     * progressive widening: a node with n visits may select its first ceil(WIDENING_FACTOR * n^WIDENING_EXPONENT)
+     * successors, the number of reinforcement actions generated when widening is used
+     */
+    private static final double WIDENING_FACTOR = 1;
+    private static final double WIDENING_EXPONENT = 0.5;
+    private static final int WIDENED_REINFORCEMENT_BRANCHING_FACTOR = 6;
+
+    private boolean progressiveWidening = false;
+    private boolean fastRollouts = false;
+    private RolloutMode rolloutMode = RolloutMode.SAMPLED;
+
+    private TranspositionTable transpositionTable = new TranspositionTable();
 
     public AttackMctsActionSupplier(BooleanSupplier shouldStopComputation) {
         super(shouldStopComputation);
     }
 
+    public AttackMctsActionSupplier(BooleanSupplier shouldStopComputation, int threads) {
+        super(shouldStopComputation, threads);
+    }
+
+    public AttackMctsActionSupplier(BooleanSupplier shouldStopComputation, int threads, SearchParallelism parallelism) {
+        super(shouldStopComputation, threads, parallelism);
+    }
+
+    @Override
+    MctsActionSupplier createWorker() {
+        var worker = new AttackMctsActionSupplier(shouldStopComputation);
+        worker.setProgressiveWidening(progressiveWidening);
+        worker.setFastRollouts(fastRollouts);
+        worker.setRolloutMode(rolloutMode);
+        return worker;
+    }
+
+    /**
+     * Simulate the attack phase on the array based RolloutRisk instead of expanding tree nodes with Risk.doAction.
+     * Simulations starting in a phase RolloutRisk does not model (e.g. reinforcement) still use the tree.
+     *
+     * @param fastRollouts Whether the fast rollouts should be used
+     */
+    public void setFastRollouts(boolean fastRollouts) {
+        this.fastRollouts = fastRollouts;
+    }
+
+    /**
+     * Set how the attack phase is simulated. Expected value rollouts always run on the array based RolloutRisk, so
+     * simulations starting in a phase it does not model are still sampled on the tree.
+     *
+     * @param rolloutMode The rollout mode to use
+     */
+    public void setRolloutMode(RolloutMode rolloutMode) {
+        this.rolloutMode = rolloutMode;
+    }
+
+    /**
+     * Order the successors of attack and reinforcement decisions by their prior (win probability of the attack, rank
+     * of the reinforcement heuristic) and only open up more of them as the node is visited more often.
+     *
+     * @param progressiveWidening Whether progressive widening should be used
+     */
+    public void setProgressiveWidening(boolean progressiveWidening) {
+        this.progressiveWidening = progressiveWidening;
+    }
+
+    @Override
+    int getWideningLimit(ActionNode actionNode, int visits) {
+        int childCount = actionNode.getSuccessors().size();
+        if (!actionNode.isProgressivelyWidened()) {
+            return childCount;
+        }
+        int limit = (int) Math.ceil(WIDENING_FACTOR * Math.pow(visits, WIDENING_EXPONENT));
+        return Math.max(1, Math.min(childCount, limit));
+    }
+
     /**
      * first expand territories with max defending troops -> attacker looses less troops -> maximize expected value
      * ( i.e. difference of troops lost)
@@ -44,6 +122,9 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
      */
     @Override
     ActionNode getBestAttackSuccessorNode(ActionNode node) {
+        if (node.isChanceNode()) {
+            return sampleOutcome(node);
+        }
         RiskBoard board = node.getBoard();
         return Collections.max(node.getSuccessors(),
                 Comparator.comparingInt(nodeToEvaluate ->
@@ -51,21 +132,44 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
                 ));
     }
 
+    /**
+     * Use a transposition table which outlives this supplier, e.g. to detect transpositions during a whole turn
+     *
+     * @param transpositionTable The table to use
+     */
+    public void setTranspositionTable(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+    }
+
+    /**
+     * Evaluate a node, every game state is only evaluated once (shared between transpositions)
+     * The features are derived from the ones of the parent node, so only the territories changed by the action are
+     * looked at.
+     *
+     * @param node The node to evaluate
+     * @return The evaluation score
+     */
     @Override
     Integer evaluate(ActionNode node) {
-        Risk game = node.getGame();
-        RiskBoard board = node.getBoard();
-        int activePlayer = game.getCurrentPlayer();
+        Integer evaluation = node.getEvaluation();
+        if (evaluation == null) {
+            evaluation = evaluateState(node);
+            node.setEvaluation(evaluation);
+        }
+        return evaluation;
+    }
 
-        Set<Integer> occupiedTerritories = board.getTerritoriesOccupiedByPlayer(activePlayer);
-        Set<Integer> neighbouringEnemyTerritories = GameUtils.getEnemyNeighbors(occupiedTerritories, board);
+    private int evaluateState(ActionNode node) {
+        return score(IncrementalEvaluator.getFeatures(node));
+    }
 
-        double occupationBonus = occupiedTerritories.size() * OCCUPATION_FACTOR;
-        double frontlineCntMalus = neighbouringEnemyTerritories.size() * FRONTLINE_PENALTY_FACTOR;
-        double frontlineMarginFactor = GameUtils.getFrontlineMargin(occupiedTerritories, board) * FRONTLINE_MARGIN_FACTOR;
-        double continentBonus = GameUtils.getContinentBonusForPlayer(activePlayer, board) * CONTINENT_BONUS_FACTOR;
-        double enemyContinentMalus = GameUtils.getTotalContinentMalus(activePlayer, board) * ENEMY_CONTINENT_PENALTY_FACTOR;
-        double unusedTroopsMalus = GameUtils.getUnusedTroops(occupiedTerritories, board) * UNUSED_TROOPS_PENALTY_FACTOR;
+    private int score(BoardFeatures features) {
+        double occupationBonus = features.getOccupiedTerritories() * OCCUPATION_FACTOR;
+        double frontlineCntMalus = features.getEnemyFrontier() * FRONTLINE_PENALTY_FACTOR;
+        double frontlineMarginFactor = features.getFrontlineMargin() * FRONTLINE_MARGIN_FACTOR;
+        double continentBonus = features.getContinentBonus() * CONTINENT_BONUS_FACTOR;
+        double enemyContinentMalus = features.getEnemyContinentBonus() * ENEMY_CONTINENT_PENALTY_FACTOR;
+        double unusedTroopsMalus = features.getUnusedTroops() * UNUSED_TROOPS_PENALTY_FACTOR;
 
         return Math.toIntExact(Math.round(occupationBonus + frontlineCntMalus +
                 frontlineMarginFactor + continentBonus + enemyContinentMalus + unusedTroopsMalus));
@@ -73,10 +177,18 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
 
     @Override
     int simulateGame(ActionNode explorationNode) {
+        if (fastRollouts || rolloutMode == RolloutMode.EXPECTED_VALUE) {
+            RolloutRisk rollout = RolloutRisk.of(explorationNode.getGame(), explorationNode.getTopology(), getPendingAttack(explorationNode));
+            if (rollout != null) {
+                return rolloutMode == RolloutMode.EXPECTED_VALUE ? simulateExpectedRollout(rollout) : simulateRollout(rollout);
+            }
+        }
         var currentNode = explorationNode;
         while (!this.shouldStopComputation.getAsBoolean() && !currentNode.getSuccessors().isEmpty()) {
-            if (isCasualtyPhase(currentNode.getGame(), currentNode.getBoard()) || GameUtils.isReinforcementAction(currentNode.getAction())) {
-                // for casualty simulation we take a random successor, not the best
+            if (currentNode.isChanceNode()) {
+                // for casualty simulation we sample the dice outcome, not the best
+                currentNode = sampleOutcome(currentNode);
+            } else if (GameUtils.isReinforcementAction(currentNode.getAction())) {
                 // For reinforcement, since the number of successors currently is very small and focused anyway,
                 // it should be fine to just select an action @ random.
                 currentNode = Util.selectRandom(currentNode.getSuccessors());
@@ -91,6 +203,141 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
         return evaluate(currentNode);
     }
 
+    /**
+     * Simulate the rest of the attack phase on a rollout state, following the same policy as the simulation on the
+     * tree: a dice outcome sampled by its probability for casualties, the occupation rules of the OccupyActionSupplier, and otherwise the
+     * advantageous attack on the territory with the most defenders.
+     *
+     * @param rollout The rollout state, it is changed by the simulation
+     * @return The evaluation of the state the simulation ended in
+     */
+    private int simulateRollout(RolloutRisk rollout) {
+        Random random = ThreadLocalRandom.current();
+        while (!this.shouldStopComputation.getAsBoolean() && rollout.isRunning()) {
+            if (rollout.getPhase() == RolloutRisk.CASUALTIES) {
+                int comparedDice = rollout.getComparedDice();
+                int attackerCasualties = sampleAttackerCasualties(rollout.getAttackerDice(), rollout.getDefenderDice(), random);
+                rollout.casualties(attackerCasualties, comparedDice - attackerCasualties);
+            } else if (rollout.getPhase() == RolloutRisk.OCCUPY) {
+                rollout.occupy(OccupyActionSupplier.selectRolloutOccupation(rollout, random));
+            } else {
+                rollout.apply(selectRolloutAttack(rollout));
+            }
+        }
+        return score(IncrementalEvaluator.computeFeatures(rollout));
+    }
+
+    /**
+     * Simulate the rest of the attack phase deterministically: the same attacks as in the sampled rollout are chosen,
+     * but each one is fought out at once with its expected result instead of rolling the dice round by round, and
+     * conquered territories are occupied with the amount in between the options of the occupy rules.
+     *
+     * @param rollout The rollout state, it is changed by the simulation
+     * @return The evaluation of the state the simulation ended in
+     */
+    private int simulateExpectedRollout(RolloutRisk rollout) {
+        if (rollout.getPhase() == RolloutRisk.CASUALTIES) {
+            // the pending dice round is resolved with its most likely outcome
+            int comparedDice = rollout.getComparedDice();
+            int attackerCasualties = getMostLikelyAttackerCasualties(rollout.getAttackerDice(), rollout.getDefenderDice());
+            rollout.casualties(attackerCasualties, comparedDice - attackerCasualties);
+        }
+        while (!this.shouldStopComputation.getAsBoolean() && rollout.isRunning()) {
+            if (rollout.getPhase() == RolloutRisk.OCCUPY) {
+                rollout.occupy(OccupyActionSupplier.selectExpectedRolloutOccupation(rollout));
+                continue;
+            }
+            long attack = selectRolloutAttack(rollout);
+            if (attack == RolloutRisk.END_PHASE_ACTION) {
+                rollout.endAttackPhase();
+            } else {
+                rollout.apply(attack);
+                fightExpectedBattle(rollout);
+            }
+        }
+        return score(IncrementalEvaluator.computeFeatures(rollout));
+    }
+
+    /**
+     * Resolve the pending attack of a rollout as a whole battle with all mobile troops of the attacking territory.
+     * A likely win conquers the territory, losing the number of attackers expected in a won battle; otherwise all
+     * attackers fall, taking the number of defenders expected in a lost battle with them.
+     */
+    private static void fightExpectedBattle(RolloutRisk rollout) {
+        int attackers = rollout.getMobileTroops(rollout.getAttackingId());
+        int defenders = rollout.getTroops(rollout.getDefendingId());
+        if (BattleSimulator.getWinProbability(attackers, defenders) >= 0.5) {
+            int attackerLosses = (int) Math.round(BattleSimulator.getExpectedAttackerLossesOnWin(attackers, defenders));
+            rollout.casualties(Math.min(attackers - 1, attackerLosses), defenders);
+        } else {
+            int defenderLosses = (int) Math.round(BattleSimulator.getExpectedDefenderLossesOnLoss(attackers, defenders));
+            rollout.casualties(attackers, Math.min(defenders - 1, defenderLosses));
+        }
+    }
+
+    private static int getMostLikelyAttackerCasualties(int attackerDice, int defenderDice) {
+        int mostLikely = 0;
+        for (int attackerCasualties = 1; attackerCasualties <= Math.min(attackerDice, defenderDice); attackerCasualties++) {
+            if (BattleSimulator.getRoundProbability(attackerDice, defenderDice, attackerCasualties)
+                    > BattleSimulator.getRoundProbability(attackerDice, defenderDice, mostLikely)) {
+                mostLikely = attackerCasualties;
+            }
+        }
+        return mostLikely;
+    }
+
+    private static int sampleAttackerCasualties(int attackerDice, int defenderDice, Random random) {
+        int comparedDice = Math.min(attackerDice, defenderDice);
+        double remaining = random.nextDouble();
+        for (int attackerCasualties = 0; attackerCasualties < comparedDice; attackerCasualties++) {
+            remaining -= BattleSimulator.getRoundProbability(attackerDice, defenderDice, attackerCasualties);
+            if (remaining < 0) {
+                return attackerCasualties;
+            }
+        }
+        return comparedDice;
+    }
+
+    private long selectRolloutAttack(RolloutRisk rollout) {
+        int player = rollout.getPlayer();
+        long bestAttack = RolloutRisk.END_PHASE_ACTION;
+        int mostDefenders = 0;
+        BoardTopology topology = rollout.getTopology();
+        int[] neighborIds = topology.getNeighborIds();
+        for (int territory = 0; territory < topology.getTerritoryIdBound(); territory++) {
+            int attackers = rollout.getMobileTroops(territory);
+            if (rollout.getOwner(territory) != player || attackers == 0) {
+                continue;
+            }
+            for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+                int neighbor = neighborIds[i];
+                int defenders = rollout.getTroops(neighbor);
+                if (rollout.getOwner(neighbor) != player && defenders > mostDefenders
+                        && AttackActionSupplier.isAdvantageous(attackers, defenders)) {
+                    mostDefenders = defenders;
+                    bestAttack = RolloutRisk.attackAction(territory, neighbor, Math.min(attackers, MAX_ATTACK_TROOPS));
+                }
+            }
+        }
+        return bestAttack;
+    }
+
+    /**
+     * Get the attack whose casualties or occupation is pending in the state of a node
+     */
+    private static RiskAction getPendingAttack(ActionNode node) {
+        ActionNode current = node;
+        // attack, casualties, occupy
+        for (int i = 0; i < 3 && current != null; i++) {
+            RiskAction action = current.getAction();
+            if (action != null && action.attackingId() >= 0 && action.defendingId() >= 0) {
+                return action;
+            }
+            current = current.getParent().orElse(null);
+        }
+        return null;
+    }
+
     /**
      * reuses the static attack action supplier
      * valid attack actions are:
@@ -102,11 +349,28 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
      */
     @Override
     List<ActionNode> getSuccessors(ActionNode selectedNode) {
-        if (selectedNode.getSuccessors() != null) {
+        List<ActionNode> successors = selectedNode.getSuccessors();
+        if (successors != null) {
+            return successors;
+        }
+        if (!selectedNode.isTransposition()) {
+            synchronized (selectedNode.getExpansionLock()) {
+                if (selectedNode.getSuccessors() == null) {
+                    linkTransposition(selectedNode);
+                }
+            }
+        }
+        // only one thread expands a node (or the node it is a transposition of), the others wait for its successors
+        synchronized (selectedNode.getExpansionLock()) {
+            if (selectedNode.getSuccessors() == null) {
+                selectedNode.setSuccessors(createSuccessors(selectedNode));
+            }
             return selectedNode.getSuccessors();
         }
+    }
+
+    private List<ActionNode> createSuccessors(ActionNode selectedNode) {
         if (selectedNode.isLeafNode()) {
-            selectedNode.setSuccessors(new ArrayList<>());
             return new ArrayList<>();
         }
 
@@ -119,36 +383,106 @@ public class AttackMctsActionSupplier extends MctsActionSupplier{
             // if we simulated the attack action we pass it to the action supplier - otherwise we fetch it from the history (takes more time)
             RiskAction attackAction = selectedNode.getParent().isPresent() ? selectedNode.getParent().get().getAction() : null;
             Set<RiskAction> occupyActions = attackAction != null ?
-                    OccupyActionSupplier.createActions(selectedNode.getGame(), board, attackAction) :
-                    OccupyActionSupplier.createActions(selectedNode.getGame(), board);
+                    OccupyActionSupplier.createActions(selectedNode.getGame(), board, selectedNode.getTopology(), attackAction) :
+                    OccupyActionSupplier.createActions(selectedNode.getGame(), board, selectedNode.getTopology());
 
             successors = occupyActions
                     .stream()
-                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, (Risk) selectedNode.getGame().doAction(ra), ra))
+                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, ra))
                     .collect(Collectors.toList());
         } else if (isCasualtyPhase(selectedNode.getGame(), board)) {
-            successors = selectedNode.getGame().getPossibleActions()
-                    .stream()
-                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, (Risk) selectedNode.getGame().doAction(ra), ra))
-                    .collect(Collectors.toList());
+            successors = createOutcomes(selectedNode, board);
+            selectedNode.setChanceNode(true);
         } else if (board.isReinforcementPhase()) {
-            successors = ReinforcementActionSupplier.getSuccessors(selectedNode, board)
-                    .map(riskAction -> new ActionNode(selectedNode.getPlayer(), selectedNode, (Risk) selectedNode.getGame().doAction(riskAction), riskAction))
+            if (progressiveWidening) {
+                // generate more reinforcements, they are ranked by the heuristic and opened up gradually
+                successors = ReinforcementActionSupplier.getSuccessors(selectedNode, board, WIDENED_REINFORCEMENT_BRANCHING_FACTOR)
+                        .map(riskAction -> new ActionNode(selectedNode.getPlayer(), selectedNode, riskAction))
+                        .collect(Collectors.toList());
+                selectedNode.setProgressivelyWidened(true);
+            } else {
+                successors = ReinforcementActionSupplier.getSuccessors(selectedNode, board)
+                        .map(riskAction -> new ActionNode(selectedNode.getPlayer(), selectedNode, riskAction))
+                        .collect(Collectors.toList());
+            }
+        } else if (progressiveWidening) {
+            // most promising attack first, then ending the phase, then the remaining attacks by win probability
+            successors = AttackActionSupplier
+                    .createRankedActions(selectedNode.getGame(), board, selectedNode.getTopology(), MAX_ATTACK_TROOPS)
+                    .stream()
+                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, ra))
                     .collect(Collectors.toList());
+            successors.add(Math.min(1, successors.size()), new ActionNode(selectedNode.getPlayer(), selectedNode, RiskAction.endPhase()));
+            selectedNode.setProgressivelyWidened(true);
         } else {
             successors = AttackActionSupplier
-                    .createActions(selectedNode.getGame(), board, MAX_ATTACK_TROOPS)
+                    .createActions(selectedNode.getGame(), board, selectedNode.getTopology(), MAX_ATTACK_TROOPS)
                     .stream()
-                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, (Risk) selectedNode.getGame().doAction(ra), ra))
+                    .map(ra -> new ActionNode(selectedNode.getPlayer(), selectedNode, ra))
                     .collect(Collectors.toList());
-            successors.add(new ActionNode(selectedNode.getPlayer(), selectedNode, (Risk) selectedNode.getGame().doAction(RiskAction.endPhase()), RiskAction.endPhase()));
+            successors.add(new ActionNode(selectedNode.getPlayer(), selectedNode, RiskAction.endPhase()));
         }
 
-        selectedNode.setSuccessors(successors);
+        return successors;
+    }
 
+    /**
+     * Create the dice outcomes of a casualty state, each with its probability.
+     * Outcomes with a negligible probability are dropped and the others renormalized. If the attack leading to the
+     * state is unknown, all outcomes are assumed to be equally likely.
+     *
+     * @param chanceNode The casualty state, its action is the attack whose casualties are resolved
+     * @param board      The board of the casualty state
+     * @return The outcome nodes
+     */
+    private List<ActionNode> createOutcomes(ActionNode chanceNode, RiskBoard board) {
+        List<RiskAction> outcomes = new ArrayList<>(chanceNode.getGame().getPossibleActions());
+        RiskAction attack = chanceNode.getAction();
+        boolean attackKnown = attack != null && attack.attackingId() >= 0 && attack.defendingId() >= 0;
+        double[] probabilities = new double[outcomes.size()];
+        double totalProbability = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            double probability = attackKnown ? BattleSimulator.getRoundProbability(attack.troops(),
+                    board.getTerritoryTroops(attack.defendingId()), outcomes.get(i).attackerCasualties()) : 1.0 / outcomes.size();
+            probabilities[i] = probability >= NEGLIGIBLE_OUTCOME_PROBABILITY ? probability : 0;
+            totalProbability += probabilities[i];
+        }
+        List<ActionNode> successors = new ArrayList<>(outcomes.size());
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (totalProbability <= 0) {
+                // the outcomes do not match the dice, better keep all of them than none
+                successors.add(new ActionNode(chanceNode.getPlayer(), chanceNode, outcomes.get(i), 1.0 / outcomes.size()));
+            } else if (probabilities[i] > 0) {
+                successors.add(new ActionNode(chanceNode.getPlayer(), chanceNode, outcomes.get(i), probabilities[i] / totalProbability));
+            }
+        }
         return successors;
     }
 
+    /**
+     * Link a node about to be expanded to the node which first reached the same game state, so both share their
+     * statistics and successors, turning the tree into a DAG.
+     * This is done on expansion, since successors only compute their game state once they are visited.
+     * Only states where the player decides on the next attack are considered, since those are the ones reached by
+     * different attack and occupy orders. Occupy and casualty states depend on the attack leading to them.
+     *
+     * @param node The node to expand
+     */
+    private void linkTransposition(ActionNode node) {
+        Risk game = node.getGame();
+        if (node.isLeafNode() || game.isGameOver() || game.getCurrentPlayer() < 0) {
+            return;
+        }
+        RiskBoard board = node.getBoard();
+        if (!board.isAttackPhase()) {
+            return;
+        }
+        ActionNode firstNode = transpositionTable.putIfAbsent(ZobristHash.of(game, board), node);
+        if (firstNode != node) {
+            node.linkTransposition(firstNode);
+        }
+    }
+
     boolean isCasualtyPhase(Risk game, RiskBoard board) {
         return board.isAttackPhase() && game.getCurrentPlayer() == -6;
     }
@@ -0,0 +1,40 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+import lombok.Getter;
+
+/**
+ * The features of a game state used for its evaluation, seen from one player.
+ * They are cached per node, so the features of a successor can be derived from the ones of its parent.
+ */
+@Getter
+public class BoardFeatures {
+
+    private final int player;
+    private final int occupiedTerritories; // number of territories of the player
+    private final int enemyFrontier; // number of enemy territories neighbouring the player's territories
+    private final int frontlineMargin; // troops of the player on the frontline minus the troops of the enemy frontier
+    private final int continentBonus; // bonus of the continents occupied by the player
+    private final int enemyContinentBonus; // bonus of the continents occupied by the enemies
+    private final int unusedTroops; // mobile troops of the player not neighbouring any enemy
+
+    BoardFeatures(int player, int[] features) {
+        this.player = player;
+        this.occupiedTerritories = features[IncrementalEvaluator.OCCUPIED];
+        this.enemyFrontier = features[IncrementalEvaluator.ENEMY_FRONTIER];
+        this.frontlineMargin = features[IncrementalEvaluator.FRONTLINE_MARGIN];
+        this.continentBonus = features[IncrementalEvaluator.CONTINENT_BONUS];
+        this.enemyContinentBonus = features[IncrementalEvaluator.ENEMY_CONTINENT_BONUS];
+        this.unusedTroops = features[IncrementalEvaluator.UNUSED_TROOPS];
+    }
+
+    int[] toArray() {
+        int[] features = new int[IncrementalEvaluator.FEATURE_COUNT];
+        features[IncrementalEvaluator.OCCUPIED] = occupiedTerritories;
+        features[IncrementalEvaluator.ENEMY_FRONTIER] = enemyFrontier;
+        features[IncrementalEvaluator.FRONTLINE_MARGIN] = frontlineMargin;
+        features[IncrementalEvaluator.CONTINENT_BONUS] = continentBonus;
+        features[IncrementalEvaluator.ENEMY_CONTINENT_BONUS] = enemyContinentBonus;
+        features[IncrementalEvaluator.UNUSED_TROOPS] = unusedTroops;
+        return features;
+    }
+}
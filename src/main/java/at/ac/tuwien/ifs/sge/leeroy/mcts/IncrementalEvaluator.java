@@ -0,0 +1,284 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+import at.ac.tuwien.ifs.sge.leeroy.agents.GameUtils;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.BoardTopology;
+import at.ac.tuwien.ifs.sge.leeroy.util.game.RolloutRisk;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class computes the evaluation features of the game state of a node, seen from the player to move.
+ * In chance states (e.g. casualties) the features stay seen from the player whose action is resolved.
+ * Every feature is a sum of per territory (or per continent) contributions, and a contribution only depends on the
+ * territory and its neighbours. So the features of a successor are derived from the ones of its parent by replacing
+ * the contributions of the territories the action changed and of their neighbours. Only if the changed territories
+ * are unknown (e.g. after trading in cards) or the player changes, the features are computed from scratch.
+ */
+class IncrementalEvaluator {
+
+    static final int OCCUPIED = 0;
+    static final int ENEMY_FRONTIER = 1;
+    static final int FRONTLINE_MARGIN = 2;
+    static final int CONTINENT_BONUS = 3;
+    static final int ENEMY_CONTINENT_BONUS = 4;
+    static final int UNUSED_TROOPS = 5;
+    static final int FEATURE_COUNT = 6;
+
+    // derive the features over at most this many ancestors without features, otherwise compute them from scratch
+    private static final int MAX_DERIVATION_DEPTH = 16;
+    // an occupy is at most this many nodes below the attack it follows (attack, casualties, occupy)
+    private static final int MAX_ATTACK_DISTANCE = 3;
+
+    private IncrementalEvaluator() {
+    }
+
+    /**
+     * Get the features of the game state of a node, seen from the player to move in that state (or the player whose
+     * action is resolved in a chance state)
+     *
+     * @param node The node
+     * @return The features of the node
+     */
+    static BoardFeatures getFeatures(ActionNode node) {
+        BoardFeatures features = node.getFeatures();
+        if (features != null) {
+            return features;
+        }
+        Deque<ActionNode> nodesToDerive = new ArrayDeque<>();
+        ActionNode ancestor = node;
+        while (ancestor.getFeatures() == null && ancestor.getParent().isPresent() && nodesToDerive.size() < MAX_DERIVATION_DEPTH) {
+            nodesToDerive.push(ancestor);
+            ancestor = ancestor.getParent().get();
+        }
+        features = ancestor.getFeatures();
+        if (features == null) {
+            features = computeFeatures(ancestor.getBoard(), ancestor.getTopology(), getPlayer(ancestor, ancestor.getPlayer()));
+            ancestor.setFeatures(features);
+        }
+        ActionNode parent = ancestor;
+        while (!nodesToDerive.isEmpty()) {
+            ActionNode child = nodesToDerive.pop();
+            features = deriveFeatures(features, parent, child);
+            child.setFeatures(features);
+            parent = child;
+        }
+        return features;
+    }
+
+    private static BoardFeatures deriveFeatures(BoardFeatures parentFeatures, ActionNode parent, ActionNode child) {
+        RiskBoard board = child.getBoard();
+        BoardTopology topology = child.getTopology();
+        int player = getPlayer(child, parentFeatures.getPlayer());
+        Set<Integer> changedTerritories = getChangedTerritories(parent, child);
+        if (changedTerritories == null || player != parentFeatures.getPlayer()) {
+            return computeFeatures(board, topology, player);
+        }
+        if (changedTerritories.isEmpty()) {
+            return new BoardFeatures(player, parentFeatures.toArray());
+        }
+        RiskBoard parentBoard = parent.getBoard();
+        Map<Integer, RiskTerritory> parentTerritories = parentBoard.getTerritories();
+        Map<Integer, RiskTerritory> territories = board.getTerritories();
+
+        Set<Integer> affectedTerritories = new HashSet<>(changedTerritories);
+        Set<Integer> affectedContinents = new HashSet<>();
+        for (Integer territory : changedTerritories) {
+            int[] neighborIds = topology.getNeighborIds();
+            for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+                affectedTerritories.add(neighborIds[i]);
+            }
+            affectedContinents.add(topology.getContinent(territory));
+        }
+
+        int[] features = parentFeatures.toArray();
+        for (Integer territory : affectedTerritories) {
+            addTerritoryContribution(features, topology, parentBoard, parentTerritories, territory, player, -1);
+            addTerritoryContribution(features, topology, board, territories, territory, player, 1);
+        }
+        for (Integer continent : affectedContinents) {
+            addContinentContribution(features, topology, parentBoard, parentTerritories, continent, player, -1);
+            addContinentContribution(features, topology, board, territories, continent, player, 1);
+        }
+        return new BoardFeatures(player, features);
+    }
+
+    private static int getPlayer(ActionNode node, int previousPlayer) {
+        int currentPlayer = node.getGame().getCurrentPlayer();
+        return currentPlayer >= 0 ? currentPlayer : previousPlayer;
+    }
+
+    /**
+     * Compute the features of a game state from scratch
+     *
+     * @param board    The board of the game state
+     * @param topology The topology of the board
+     * @param player   The player to compute the features for
+     * @return The features
+     */
+    static BoardFeatures computeFeatures(RiskBoard board, BoardTopology topology, int player) {
+        int[] features = new int[FEATURE_COUNT];
+        Map<Integer, RiskTerritory> territories = board.getTerritories();
+        for (Integer territory : territories.keySet()) {
+            addTerritoryContribution(features, topology, board, territories, territory, player, 1);
+        }
+        for (int continent = 0; continent < topology.getContinentCount(); continent++) {
+            addContinentContribution(features, topology, board, territories, continent, player, 1);
+        }
+        return new BoardFeatures(player, features);
+    }
+
+    /**
+     * Compute the features of a rollout state from scratch, seen from the player of the rollout
+     *
+     * @param rollout The rollout state
+     * @return The features
+     */
+    static BoardFeatures computeFeatures(RolloutRisk rollout) {
+        int player = rollout.getPlayer();
+        int[] features = new int[FEATURE_COUNT];
+        BoardTopology topology = rollout.getTopology();
+        int[] neighbourIds = topology.getNeighborIds();
+        for (int territory = 0; territory < topology.getTerritoryIdBound(); territory++) {
+            if (topology.getContinent(territory) < 0) {
+                continue;
+            }
+            boolean ownTerritory = rollout.getOwner(territory) == player;
+            boolean neighboursOtherOccupant = false;
+            for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+                if ((rollout.getOwner(neighbourIds[i]) == player) != ownTerritory) {
+                    neighboursOtherOccupant = true;
+                    break;
+                }
+            }
+            if (ownTerritory) {
+                features[OCCUPIED]++;
+                if (neighboursOtherOccupant) {
+                    features[FRONTLINE_MARGIN] += rollout.getTroops(territory);
+                } else {
+                    features[UNUSED_TROOPS] += rollout.getMobileTroops(territory);
+                }
+            } else if (neighboursOtherOccupant) {
+                features[ENEMY_FRONTIER]++;
+                features[FRONTLINE_MARGIN] -= rollout.getTroops(territory);
+            }
+        }
+        for (int continent = 0; continent < topology.getContinentCount(); continent++) {
+            int[] continentTerritories = topology.getContinentTerritories(continent);
+            if (continentTerritories.length == 0) {
+                continue;
+            }
+            int occupant = rollout.getOwner(continentTerritories[0]);
+            boolean fullyOccupied = true;
+            for (int territory : continentTerritories) {
+                fullyOccupied &= rollout.getOwner(territory) == occupant;
+            }
+            if (!fullyOccupied) {
+                continue;
+            }
+            if (occupant == player) {
+                features[CONTINENT_BONUS] += topology.getContinentBonus(continent);
+            } else if (occupant >= 0 && occupant < rollout.getNumberOfPlayers()) {
+                features[ENEMY_CONTINENT_BONUS] += topology.getContinentBonus(continent);
+            }
+        }
+        return new BoardFeatures(player, features);
+    }
+
+    /**
+     * Get the territories whose occupant or troops the action of a node changed
+     *
+     * @param parent The parent of the node
+     * @param node   The node
+     * @return The changed territories, null if they are unknown
+     */
+    private static Set<Integer> getChangedTerritories(ActionNode parent, ActionNode node) {
+        RiskAction action = node.getAction();
+        if (action == null || action.isCardIds()) {
+            // trading in cards can place bonus troops on any territory
+            return null;
+        }
+        if (action.isEndPhase()) {
+            return Set.of();
+        }
+        if (parent.getGame().getCurrentPlayer() < 0) {
+            // casualties change the territories of the attack leading to the chance state
+            RiskAction attackAction = parent.getAction();
+            return attackAction != null && isAttackOrFortify(attackAction) ?
+                    Set.of(attackAction.attackingId(), attackAction.defendingId()) : null;
+        }
+        if (isAttackOrFortify(action)) {
+            return Set.of(action.attackingId(), action.defendingId());
+        }
+        if (parent.getBoard().isOccupyPhase()) {
+            // an occupation changes the territories of the attack it follows
+            ActionNode ancestor = parent;
+            for (int i = 0; i < MAX_ATTACK_DISTANCE && ancestor != null; i++) {
+                RiskAction ancestorAction = ancestor.getAction();
+                if (ancestorAction != null && isAttackOrFortify(ancestorAction)) {
+                    return Set.of(ancestorAction.attackingId(), ancestorAction.defendingId());
+                }
+                ancestor = ancestor.getParent().orElse(null);
+            }
+            return null;
+        }
+        if (GameUtils.isReinforcementAction(action)) {
+            return Set.of(action.reinforcedId());
+        }
+        return null;
+    }
+
+    private static boolean isAttackOrFortify(RiskAction action) {
+        return action.attackingId() >= 0 && action.defendingId() >= 0;
+    }
+
+    private static void addTerritoryContribution(int[] features, BoardTopology topology, RiskBoard board,
+                                                 Map<Integer, RiskTerritory> territories, Integer territory, int player, int sign) {
+        boolean ownTerritory = territories.get(territory).getOccupantPlayerId() == player;
+        boolean neighboursOtherOccupant = false;
+        int[] neighbourIds = topology.getNeighborIds();
+        for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+            if ((territories.get(neighbourIds[i]).getOccupantPlayerId() == player) != ownTerritory) {
+                neighboursOtherOccupant = true;
+                break;
+            }
+        }
+        if (ownTerritory) {
+            features[OCCUPIED] += sign;
+            if (neighboursOtherOccupant) {
+                features[FRONTLINE_MARGIN] += sign * board.getTerritoryTroops(territory);
+            } else {
+                features[UNUSED_TROOPS] += sign * board.getMobileTroops(territory);
+            }
+        } else if (neighboursOtherOccupant) {
+            // an enemy territory next to one of the player's territories
+            features[ENEMY_FRONTIER] += sign;
+            features[FRONTLINE_MARGIN] -= sign * board.getTerritoryTroops(territory);
+        }
+    }
+
+    private static void addContinentContribution(int[] features, BoardTopology topology, RiskBoard board,
+                                                 Map<Integer, RiskTerritory> territories, int continent, int player, int sign) {
+        int[] continentTerritories = topology.getContinentTerritories(continent);
+        if (continentTerritories.length == 0) {
+            return;
+        }
+        int occupant = territories.get(continentTerritories[0]).getOccupantPlayerId();
+        for (int territory : continentTerritories) {
+            if (territories.get(territory).getOccupantPlayerId() != occupant) {
+                return;
+            }
+        }
+        if (occupant == player) {
+            features[CONTINENT_BONUS] += sign * topology.getContinentBonus(continent);
+        } else if (occupant >= 0 && occupant < board.getNumberOfPlayers()) {
+            features[ENEMY_CONTINENT_BONUS] += sign * topology.getContinentBonus(continent);
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package at.ac.tuwien.ifs.sge.leeroy.mcts;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Optional;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 import java.util.logging.Logger;
 
 /**
@@ -14,18 +20,95 @@ public abstract class MctsActionSupplier {
 
     protected ActionNode rootNode;
     protected final BooleanSupplier shouldStopComputation;
+    protected final int threads;
+    protected final SearchParallelism parallelism;
+    private LongSupplier remainingNanos = null;
+    private boolean compactTree = false;
+    private SearchTelemetry telemetry = null;
+    private SearchTelemetry previousTelemetry = null;
 
     private static final Logger logger = Logger.getLogger(MctsActionSupplier.class.getName());
 
     /**
-     * Create a new MctsActionSupplier
+     * score a pending visit of another thread is assumed to lose, roughly the value of one territory
+     */
+    private static final double VIRTUAL_LOSS = 20;
+
+    /**
+     * iterations between two checks whether the leading root successor can still be overtaken or the garbage
+     * collection pauses threaten the deadline, and the iterations a thread has to perform before its iteration rate
+     * is trusted
+     */
+    private static final int EARLY_STOP_CHECK_INTERVAL = 128;
+    private static final int MIN_ITERATIONS_BEFORE_EARLY_STOP = 512;
+
+    /**
+     * the robust child: most visits, the score only breaks ties
+     */
+    private static final Comparator<ActionNode> MOST_VISITED = Comparator
+            .comparingInt(ActionNode::getVisitCount)
+            .thenComparingDouble(ActionNode::getWinScore);
+
+    // set once the leader can not be overtaken anymore, shared by all trees of a root parallel search so all threads stop
+    private AtomicBoolean decided = new AtomicBoolean();
+    // the suppliers searching one tree each for the same root (including this one), null if there is only one tree
+    private List<MctsActionSupplier> rootWorkers = null;
+    // the visits of this supplier's root successors per action, published for merging across the trees
+    private volatile Map<RiskAction, Integer> rootVisits = Map.of();
+    // the ActionNodes of a compact tree only get their statistics at the end, so its leader is published separately
+    private volatile RiskAction compactLeader = null;
+
+    /**
+     * shared by all searches, the workers are daemons so they never keep the engine alive
+     */
+    private static final ExecutorService workerPool = Executors.newCachedThreadPool(runnable -> {
+        Thread worker = new Thread(runnable, "leeroy-mcts-worker");
+        worker.setDaemon(true);
+        return worker;
+    });
+
+    /**
+     * Create a new single threaded MctsActionSupplier
      *
      * @param shouldStopComputation A BooleanSupplier signaling when the MCTS should stop
      */
     public MctsActionSupplier(BooleanSupplier shouldStopComputation) {
+        this(shouldStopComputation, 1);
+    }
+
+    /**
+     * Create a new MctsActionSupplier searching with multiple threads.
+     * Every thread grows its own tree from a copy of the root node (root parallelization), the statistics of the root
+     * successors are merged once all threads are done.
+     *
+     * @param shouldStopComputation A BooleanSupplier signaling when the MCTS should stop
+     * @param threads               The number of trees to search in parallel
+     */
+    public MctsActionSupplier(BooleanSupplier shouldStopComputation, int threads) {
+        this(shouldStopComputation, threads, SearchParallelism.ROOT);
+    }
+
+    /**
+     * Create a new MctsActionSupplier searching with multiple threads, either on one tree per thread or on one tree
+     * shared by all threads.
+     *
+     * @param shouldStopComputation A BooleanSupplier signaling when the MCTS should stop
+     * @param threads               The number of threads searching
+     * @param parallelism           Whether the threads search separate trees or one shared tree
+     */
+    public MctsActionSupplier(BooleanSupplier shouldStopComputation, int threads, SearchParallelism parallelism) {
         this.shouldStopComputation = shouldStopComputation;
+        this.threads = Math.max(1, threads);
+        this.parallelism = parallelism;
     }
 
+    /**
+     * Create a single threaded supplier of the same kind, used as a worker for root parallelization
+     *
+     * @return A new supplier sharing the stop condition of this one
+     */
+    abstract MctsActionSupplier createWorker();
+
     /**
      * Get the best successor of the node
      *
@@ -52,80 +135,434 @@ public abstract class MctsActionSupplier {
 
     /**
      * Get the successors of a node
+     * Implementations have to expand each node at most once, even if multiple threads ask for its successors at once.
      *
      * @param selectedNode The node to get the successors for
      * @return The successors of the node
      */
     abstract List<ActionNode> getSuccessors(ActionNode selectedNode);
 
+    /**
+     * Get the number of successors of a node which may be selected, the successors are considered in the order
+     * they were generated (progressive widening). By default, all successors may be selected.
+     *
+     * @param actionNode The (expanded) node
+     * @param visits     The number of times the node has been visited
+     * @return How many of the first successors may be selected
+     */
+    int getWideningLimit(ActionNode actionNode, int visits) {
+        return actionNode.getSuccessors().size();
+    }
+
     /**
      * Find the best next action via MCTS
      *
      * @return The action deemed best by the MCTS
      */
     public ActionNode findBestNode() {
-        performMcts();
+        telemetry = new SearchTelemetry(remainingNanos, previousTelemetry);
+        decided = new AtomicBoolean();
+        rootWorkers = null;
+        rootVisits = Map.of();
+        compactLeader = null;
+        return searchBestNode();
+    }
+
+    private ActionNode searchBestNode() {
+        if (threads > 1 && parallelism == SearchParallelism.ROOT) {
+            return findBestNodeRootParallel();
+        }
+        if (threads > 1) {
+            runInParallel(Collections.<Runnable>nCopies(threads, () -> performMcts(telemetry)));
+        } else {
+            performMcts(telemetry);
+        }
         if (rootNode.getSuccessors() == null) {
             // stopped before execution (very slow pc or very low time)
             logger.warning("No successors found - slow execution?");
             return null;
         }
-        return rootNode.getSuccessors().stream().max(Comparator.comparingDouble(ActionNode::getWinScore)).orElse(null);
+        return rootNode.getSuccessors().stream().max(MOST_VISITED).orElse(null);
+    }
+
+    /**
+     * Get the action currently leading the search, can be called while the search is running
+     *
+     * On a compact tree the leader published by the searching thread is returned, since the statistics of the
+     * ActionNodes are only written back once the search is done.
+     *
+     * @return The action of the most visited root successor, null if the root was not expanded yet
+     */
+    public RiskAction getLeadingAction() {
+        if (isCompactSearch()) {
+            return compactLeader;
+        }
+        List<ActionNode> successors = rootNode.getSuccessors();
+        if (successors == null || successors.isEmpty()) {
+            return null;
+        }
+        return Collections.max(successors, MOST_VISITED).getAction();
+    }
+
+    /**
+     * Search one tree per thread and merge the statistics of the root successors by their action.
+     * This supplier keeps working on the passed root node, so a cached tree is still extended, the other workers start
+     * from a fresh copy of it. All workers share the deadline and the early stop, which is decided on the visits of the
+     * root successors merged across the trees.
+     *
+     * @return The node of the action with the most merged visits, taken from this supplier's tree if possible
+     */
+    private ActionNode findBestNodeRootParallel() {
+        List<MctsActionSupplier> workers = new ArrayList<>(threads);
+        workers.add(this);
+        for (int i = 1; i < threads; i++) {
+            MctsActionSupplier worker = createWorker();
+            worker.compactTree = compactTree;
+            worker.remainingNanos = remainingNanos;
+            worker.decided = decided;
+            ActionNode workerRoot = new ActionNode(rootNode.getPlayer(), null, rootNode.getGame(), rootNode.getAction());
+            workerRoot.setTopology(rootNode.getTopology());
+            worker.setRootNode(workerRoot);
+            workers.add(worker);
+        }
+        for (MctsActionSupplier worker : workers) {
+            worker.rootWorkers = workers;
+        }
+        List<Runnable> searches = new ArrayList<>(threads);
+        for (MctsActionSupplier worker : workers) {
+            searches.add(() -> worker.performMcts(telemetry));
+        }
+        runInParallel(searches);
+
+        // (winScore, visitCount) per action
+        Map<RiskAction, double[]> mergedStatistics = new HashMap<>();
+        Map<RiskAction, ActionNode> nodesByAction = new HashMap<>();
+        for (MctsActionSupplier worker : workers) {
+            if (worker.rootNode.getSuccessors() == null) {
+                continue;
+            }
+            for (ActionNode successor : worker.rootNode.getSuccessors()) {
+                double[] statistics = mergedStatistics.computeIfAbsent(successor.getAction(), action -> new double[2]);
+                statistics[0] += successor.getWinScore();
+                statistics[1] += successor.getVisitCount();
+                // the first worker is this supplier, so nodes of the (possibly cached) main tree are preferred
+                nodesByAction.putIfAbsent(successor.getAction(), successor);
+            }
+        }
+        if (mergedStatistics.isEmpty()) {
+            logger.warning("No successors found - slow execution?");
+            return null;
+        }
+        return mergedStatistics.entrySet()
+                .stream()
+                .max(Comparator.<Map.Entry<RiskAction, double[]>>comparingDouble(actionStatistics -> actionStatistics.getValue()[1])
+                        .thenComparingDouble(actionStatistics -> actionStatistics.getValue()[0]))
+                .map(actionStatistics -> nodesByAction.get(actionStatistics.getKey()))
+                .orElse(null);
+    }
+
+    /**
+     * Run the searches on the worker pool and wait until all of them are done
+     *
+     * @param searches The searches to run
+     */
+    private void runInParallel(List<Runnable> searches) {
+        List<Future<?>> runningSearches = new ArrayList<>(searches.size());
+        for (Runnable search : searches) {
+            runningSearches.add(workerPool.submit(search));
+        }
+        for (Future<?> runningSearch : runningSearches) {
+            try {
+                runningSearch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                logger.warning("MCTS worker failed: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Check whether the leading root successor can still be overtaken in the remaining time, assuming every remaining
+     * iteration of every thread visits the runner-up. If not, searching on does not change the chosen action.
+     * With one tree per thread the visits of all trees are merged, as the action is chosen by the merged visits.
+     *
+     * @param ownRootVisits The visits of the calling thread's root successors per action, published for the other trees
+     * @param iterations    The iterations the calling thread has performed so far
+     * @param startNanos    When the calling thread started searching
+     * @return Whether the search can stop
+     */
+    private boolean isDecided(Map<RiskAction, Integer> ownRootVisits, long iterations, long startNanos) {
+        rootVisits = ownRootVisits;
+        if (remainingNanos == null || iterations < MIN_ITERATIONS_BEFORE_EARLY_STOP) {
+            return false;
+        }
+        Collection<Integer> visits = ownRootVisits.values();
+        int searchingThreads = threads;
+        if (rootWorkers != null) {
+            Map<RiskAction, Integer> mergedVisits = new HashMap<>();
+            for (MctsActionSupplier worker : rootWorkers) {
+                worker.rootVisits.forEach((action, actionVisits) -> mergedVisits.merge(action, actionVisits, Integer::sum));
+            }
+            visits = mergedVisits.values();
+            searchingThreads = rootWorkers.size();
+        }
+        int[] leadingVisits = getLeadingVisits(visits);
+        double iterationsPerNano = iterations / (double) Math.max(1, System.nanoTime() - startNanos);
+        double remainingIterations = iterationsPerNano * searchingThreads * Math.max(0, remainingNanos.getAsLong());
+        return leadingVisits[0] - leadingVisits[1] > remainingIterations;
+    }
+
+    private static Map<RiskAction, Integer> getVisitsByAction(List<ActionNode> successors) {
+        Map<RiskAction, Integer> visitsByAction = new HashMap<>();
+        for (ActionNode successor : successors) {
+            visitsByAction.merge(successor.getAction(), successor.getVisitCount(), Integer::sum);
+        }
+        return visitsByAction;
+    }
+
+    private static int[] getLeadingVisits(Collection<Integer> successorVisits) {
+        int[] leadingVisits = new int[2];
+        for (int visits : successorVisits) {
+            if (visits > leadingVisits[0]) {
+                leadingVisits[1] = leadingVisits[0];
+                leadingVisits[0] = visits;
+            } else if (visits > leadingVisits[1]) {
+                leadingVisits[1] = visits;
+            }
+        }
+        return leadingVisits;
     }
 
-    private void performMcts() {
-        while (!this.shouldStopComputation.getAsBoolean()) {
-            var selectedNode = select();
+    private boolean isCompactSearch() {
+        return compactTree && parallelism != SearchParallelism.TREE;
+    }
+
+    /**
+     * Run MCTS iterations until the search should stop.
+     * The loop never forces garbage collections, instead it stops early once the collection pauses observed so far
+     * threaten the deadline. It also stops once the leading root successor can not be overtaken anymore.
+     *
+     * @param telemetry The statistics of the search this loop is part of
+     */
+    private void performMcts(SearchTelemetry telemetry) {
+        if (isCompactSearch()) {
+            performCompactMcts(telemetry);
+            return;
+        }
+        long allocatedBytesAtStart = telemetry.getThreadAllocatedBytes();
+        long startNanos = System.nanoTime();
+        long iterations = 0;
+        List<ActionNode> path = new ArrayList<>();
+        while (!decided.get() && !this.shouldStopComputation.getAsBoolean() && !telemetry.isStoppedForGc()) {
+            if (iterations % EARLY_STOP_CHECK_INTERVAL == 0) {
+                if (telemetry.isGcPauseExceedingDeadline()) {
+                    break;
+                }
+                if (rootNode.isExpanded() && isDecided(getVisitsByAction(rootNode.getSuccessors()), iterations, startNanos)) {
+                    decided.set(true);
+                    telemetry.stoppedEarly();
+                    break;
+                }
+            }
+            iterations++;
+            path.clear();
+            var selectedNode = select(path);
+            try {
+                var successors = getSuccessors(selectedNode); //expand
+                if (successors.isEmpty()) {
+                    backpropagate(rootNode.getPlayer(), path, evaluate(selectedNode));
+                } else {
+                    var explorationNode = getBestAttackSuccessorNode(selectedNode);
+                    getSuccessors(explorationNode);
+                    int playOutResult = simulateGame(explorationNode);
+                    path.add(explorationNode);
+                    backpropagate(rootNode.getPlayer(), path, playOutResult);
+                    path.remove(path.size() - 1);
+                }
+            } finally {
+                revertVirtualLoss(path);
+            }
+        }
+        long allocatedBytesAtEnd = telemetry.getThreadAllocatedBytes();
+        telemetry.addThreadStatistics(iterations, allocatedBytesAtStart < 0 ? -1 : allocatedBytesAtEnd - allocatedBytesAtStart);
+    }
+
+    /**
+     * Run MCTS iterations on a compact array store of the tree, where selection and backpropagation do not have to
+     * follow object references. The statistics are written back to the ActionNodes once the search stops.
+     *
+     * @param telemetry The statistics of the search this loop is part of
+     */
+    private void performCompactMcts(SearchTelemetry telemetry) {
+        long allocatedBytesAtStart = telemetry.getThreadAllocatedBytes();
+        long iterations = 0;
+        long startNanos = System.nanoTime();
+        ActionTreeStore store = new ActionTreeStore(rootNode);
+        int player = rootNode.getPlayer();
+        while (!decided.get() && !this.shouldStopComputation.getAsBoolean() && !telemetry.isStoppedForGc()) {
+            if (iterations % EARLY_STOP_CHECK_INTERVAL == 0 && telemetry.isGcPauseExceedingDeadline()) {
+                break;
+            }
+            if (iterations % EARLY_STOP_CHECK_INTERVAL == 0 && store.isExpanded(store.getRoot())) {
+                int leader = store.getMostVisitedChild(store.getRoot());
+                compactLeader = leader == ActionTreeStore.NO_NODE ? null : store.getNode(leader).getAction();
+                if (isDecided(store.getVisitsByAction(store.getRoot()), iterations, startNanos)) {
+                    decided.set(true);
+                    telemetry.stoppedEarly();
+                    break;
+                }
+            }
+            iterations++;
+            int selected = select(store);
+            var selectedNode = store.getNode(selected);
             var successors = getSuccessors(selectedNode); //expand
+            if (!store.isExpanded(selected)) {
+                store.expand(selected, successors);
+            }
             if (successors.isEmpty()) {
-                backpropagate(rootNode.getPlayer(), selectedNode, evaluate(selectedNode));
+                store.backpropagate(selected, player, evaluate(selectedNode));
             } else {
                 var explorationNode = getBestAttackSuccessorNode(selectedNode);
                 getSuccessors(explorationNode);
                 int playOutResult = simulateGame(explorationNode);
-                backpropagate(rootNode.getPlayer(), explorationNode, playOutResult);
+                store.backpropagate(store.getChild(selected, explorationNode), player, playOutResult);
             }
-            System.gc();
         }
+        store.writeBack();
+        long allocatedBytesAtEnd = telemetry.getThreadAllocatedBytes();
+        telemetry.addThreadStatistics(iterations, allocatedBytesAtStart < 0 ? -1 : allocatedBytesAtEnd - allocatedBytesAtStart);
     }
 
-    private ActionNode select() {
+    /**
+     * Descend the compact tree to a node which is not expanded yet.
+     * Nodes which have been expanded during simulations are added to the store on the way.
+     *
+     * @param store The compact tree
+     * @return The index of the selected node
+     */
+    private int select(ActionTreeStore store) {
+        int bestIndex = store.getRoot();
+        while (true) {
+            if (!store.isExpanded(bestIndex)) {
+                ActionNode bestNode = store.getNode(bestIndex);
+                if (!bestNode.isExpanded()) {
+                    return bestIndex;
+                }
+                store.expand(bestIndex, bestNode.getSuccessors());
+            }
+            if (!store.hasChildren(bestIndex)) {
+                return bestIndex;
+            }
+            if (store.isChanceNode(bestIndex)) {
+                bestIndex = store.sampleChild(bestIndex, ThreadLocalRandom.current().nextDouble());
+            } else {
+                bestIndex = store.getBestChild(bestIndex, getWideningLimit(store.getNode(bestIndex), store.getVisits(bestIndex)));
+            }
+        }
+    }
+
+    /**
+     * Descend to a node which is not expanded yet.
+     * Every node on the way gets a virtual loss, so other threads searching the same tree prefer different paths
+     * until this iteration has been backpropagated.
+     * Since transpositions make the tree a DAG, the path taken is recorded instead of relying on the parent nodes.
+     *
+     * @param path The list to add the nodes from the root to the selected node to
+     * @return The selected node
+     */
+    private ActionNode select(List<ActionNode> path) {
         ActionNode bestNode = rootNode;
+        path.add(bestNode);
         while (bestNode.isExpanded() && !bestNode.getSuccessors().isEmpty()) {
-            bestNode = findBestSuccessor(bestNode);
+            bestNode = bestNode.isChanceNode() ? sampleOutcome(bestNode) : findBestSuccessor(bestNode);
+            bestNode.addVirtualLoss();
+            path.add(bestNode);
         }
         return bestNode;
     }
 
+    private void revertVirtualLoss(List<ActionNode> path) {
+        // the root never gets a virtual loss
+        for (int i = 1; i < path.size(); i++) {
+            path.get(i).removeVirtualLoss();
+        }
+    }
+
     private ActionNode findBestSuccessor(ActionNode node) {
         var visited = node.getVisitCount();
-        return Collections.max(node.getSuccessors(), Comparator.comparingDouble(nodeA -> getUCTValue(visited, nodeA)));
+        var successors = node.getSuccessors();
+        var selectableSuccessors = successors.subList(0, Math.max(1, Math.min(successors.size(), getWideningLimit(node, visited))));
+        return Collections.max(selectableSuccessors, Comparator.comparingDouble(nodeA -> getUCTValue(visited, nodeA)));
+    }
+
+    /**
+     * Sample an outcome of a chance node by the probabilities of the outcomes
+     *
+     * @param chanceNode The (expanded) chance node
+     * @return The sampled outcome
+     */
+    static ActionNode sampleOutcome(ActionNode chanceNode) {
+        List<ActionNode> outcomes = chanceNode.getSuccessors();
+        double remaining = ThreadLocalRandom.current().nextDouble();
+        for (ActionNode outcome : outcomes) {
+            remaining -= outcome.getProbability();
+            if (remaining < 0) {
+                return outcome;
+            }
+        }
+        // rounding errors of the probabilities
+        return outcomes.get(outcomes.size() - 1);
+    }
+
+    /**
+     * The mean score of a visited node.
+     * The outcomes of a chance node are weighted by their probability instead of by how often they were sampled,
+     * outcomes which were not visited yet count with the mean of the chance node itself.
+     *
+     * @param node The node
+     * @return The mean score of the node
+     */
+    static double getMeanScore(ActionNode node) {
+        double ownMean = node.getWinScore() / node.getVisitCount();
+        if (!node.isChanceNode() || !node.isExpanded()) {
+            return ownMean;
+        }
+        double mean = 0;
+        for (ActionNode outcome : node.getSuccessors()) {
+            int outcomeVisits = outcome.getVisitCount();
+            mean += outcome.getProbability() * (outcomeVisits > 0 ? outcome.getWinScore() / outcomeVisits : ownMean);
+        }
+        return mean;
     }
 
     /**
      * The UCT value of a node
+     * Visits other threads are currently performing below the node count as visits losing VIRTUAL_LOSS each.
      *
      * @param parentVisited The amount of times the node's parent has been visited
      * @param node          The node to get the UCT value for
      * @return The nodes UCT value
      */
     protected double getUCTValue(int parentVisited, ActionNode node) {
-        if (node.getVisitCount() == 0) {
-            return Integer.MAX_VALUE;
+        int visitCount = node.getVisitCount();
+        int pendingVisits = node.getVirtualLoss();
+        if (visitCount == 0) {
+            // unvisited nodes first, then the ones another thread is exploring right now
+            return (double) Integer.MAX_VALUE / (1 + pendingVisits);
         } else {
-            return (node.getWinScore() / node.getVisitCount()) + 1.414 * Math.sqrt(Math.log(parentVisited) / node.getVisitCount());
+            int totalVisits = visitCount + pendingVisits;
+            double meanScore = getMeanScore(node) - pendingVisits * VIRTUAL_LOSS / totalVisits;
+            return meanScore + 1.414 * Math.sqrt(Math.log(parentVisited) / totalVisits);
         }
     }
 
-    private void backpropagate(int player, ActionNode explorationNode, int playOutResult) {
-        var toUpdate = Optional.of(explorationNode);
-        while (toUpdate.isPresent()) {
-            var nodeToUpdate = toUpdate.get();
+    private void backpropagate(int player, List<ActionNode> path, int playOutResult) {
+        for (ActionNode nodeToUpdate : path) {
             nodeToUpdate.incrementVisitCount();
             if (nodeToUpdate.getPlayer() == player) {
                 nodeToUpdate.incrementWinScore(playOutResult);
             }
-            toUpdate = nodeToUpdate.getParent();
         }
     }
 
@@ -136,5 +573,45 @@ public abstract class MctsActionSupplier {
      */
     public void setRootNode(ActionNode rootNode) {
         this.rootNode = rootNode;
+        if (rootNode.getStateCache() == null) {
+            rootNode.setStateCache(new StateCache());
+        }
+    }
+
+    /**
+     * Search on a compact array store of the tree instead of the ActionNodes.
+     * This is not supported for a shared tree (SearchParallelism.TREE), which always uses the ActionNodes.
+     *
+     * @param compactTree Whether to use the compact tree
+     */
+    public void setCompactTree(boolean compactTree) {
+        this.compactTree = compactTree;
+    }
+
+    /**
+     * Set the time left until the search has to be done, so it can stop early if garbage collection pauses would
+     * otherwise make it miss the deadline
+     *
+     * @param remainingNanos A supplier of the nanoseconds left for the search
+     */
+    public void setRemainingTime(LongSupplier remainingNanos) {
+        this.remainingNanos = remainingNanos;
+    }
+
+    /**
+     * Set the statistics of the agent's previous search, so the garbage collection pauses seen there are expected
+     * during this search as well
+     *
+     * @param previousTelemetry The statistics of the previous search, null if there is none
+     */
+    public void setPreviousTelemetry(SearchTelemetry previousTelemetry) {
+        this.previousTelemetry = previousTelemetry;
+    }
+
+    /**
+     * @return The statistics of the last search, null if no search has been performed yet
+     */
+    public SearchTelemetry getTelemetry() {
+        return telemetry;
     }
 }
@@ -0,0 +1,16 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+/**
+ * How the MCTS simulates the attack phase after expanding a node
+ */
+public enum RolloutMode {
+    /**
+     * Every dice round of an attack is sampled, each playout follows one possible course of the game
+     */
+    SAMPLED,
+    /**
+     * Every attack is fought out at once with its expected outcome (conquered if the attacker is likely to win, with
+     * the expected losses), each playout is deterministic and needs far fewer steps
+     */
+    EXPECTED_VALUE
+}
@@ -0,0 +1,15 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+/**
+ * How a MctsActionSupplier employs multiple threads
+ */
+public enum SearchParallelism {
+    /**
+     * Every thread grows its own tree, the statistics of the root successors are merged afterwards
+     */
+    ROOT,
+    /**
+     * All threads search one shared tree, spreading out by applying virtual loss during selection
+     */
+    TREE
+}
@@ -0,0 +1,170 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class collects the allocation and garbage collection statistics of one search.
+ * Instead of forcing collections, the search asks it whether the garbage collection pauses observed so far would
+ * exceed the remaining time, so it can stop early rather than time out.
+ * One instance is shared by all threads working on the same search. The pauses seen by an agent's previous search
+ * are passed on to its next one, so agents sharing a JVM do not see each other's history.
+ */
+public class SearchTelemetry {
+
+    // stop if the remaining time is not enough for this many of the longest pauses seen
+    private static final int GC_PAUSE_SAFETY_FACTOR = 2;
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private final LongSupplier remainingNanos;
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final long startGcCount;
+    private final long startGcNanos;
+    private long lastGcCount;
+    private long lastGcNanos;
+    private volatile long longestGcPauseNanos;
+    private volatile boolean stoppedForGc = false;
+    private volatile long unusedNanos = -1;
+
+    /**
+     * Start collecting statistics for a search
+     *
+     * @param remainingNanos The nanoseconds left until the search has to be done, null if there is no deadline to guard
+     * @param previous       The statistics of the agent's previous search, null if there is none
+     */
+    public SearchTelemetry(LongSupplier remainingNanos, SearchTelemetry previous) {
+        this.remainingNanos = remainingNanos;
+        this.startGcCount = getGcCount();
+        this.startGcNanos = getGcNanos();
+        this.lastGcCount = startGcCount;
+        this.lastGcNanos = startGcNanos;
+        // the longest pause of the previous search is halved, so old outliers fade out
+        this.longestGcPauseNanos = previous == null ? 0 : previous.longestGcPauseNanos / 2;
+    }
+
+    /**
+     * @return The number of bytes the current thread has allocated so far, -1 if the JVM can not tell
+     */
+    long getThreadAllocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            var allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add the work one thread has done
+     *
+     * @param threadIterations     The iterations the thread has performed
+     * @param threadAllocatedBytes The bytes the thread has allocated during them, negative if unknown
+     */
+    void addThreadStatistics(long threadIterations, long threadAllocatedBytes) {
+        iterations.add(threadIterations);
+        if (threadAllocatedBytes > 0) {
+            allocatedBytes.add(threadAllocatedBytes);
+        }
+    }
+
+    /**
+     * Check whether the garbage collection pauses observed so far could push the search past its deadline.
+     * This polls the garbage collector beans under a lock, so the search only calls it every few iterations and
+     * checks isStoppedForGc in between.
+     *
+     * @return Whether the search should stop now
+     */
+    boolean isGcPauseExceedingDeadline() {
+        if (remainingNanos == null) {
+            return false;
+        }
+        updateGcPauses();
+        if (remainingNanos.getAsLong() < GC_PAUSE_SAFETY_FACTOR * longestGcPauseNanos) {
+            stoppedForGc = true;
+        }
+        return stoppedForGc;
+    }
+
+    private synchronized void updateGcPauses() {
+        long gcCount = getGcCount();
+        if (gcCount > lastGcCount) {
+            long gcNanos = getGcNanos();
+            long averagePause = (gcNanos - lastGcNanos) / (gcCount - lastGcCount);
+            if (averagePause > longestGcPauseNanos) {
+                longestGcPauseNanos = averagePause;
+            }
+            lastGcCount = gcCount;
+            lastGcNanos = gcNanos;
+        }
+    }
+
+    /**
+     * Record that the search stopped early, since the leading action could not be overtaken anymore
+     */
+    void stoppedEarly() {
+        if (remainingNanos != null) {
+            unusedNanos = Math.max(unusedNanos, remainingNanos.getAsLong());
+        }
+    }
+
+    /**
+     * @return The nanoseconds left when the search stopped early, negative if it did not stop early
+     */
+    public long getUnusedNanos() {
+        return unusedNanos;
+    }
+
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    /**
+     * @return The average number of bytes allocated per iteration
+     */
+    public long getAllocatedBytesPerIteration() {
+        long performedIterations = iterations.sum();
+        return performedIterations == 0 ? 0 : allocatedBytes.sum() / performedIterations;
+    }
+
+    /**
+     * @return The time spent in garbage collections since the search started in milliseconds
+     */
+    public long getGcMillis() {
+        return (getGcNanos() - startGcNanos) / 1000000;
+    }
+
+    public boolean isStoppedForGc() {
+        return stoppedForGc;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MCTS: %d iterations, %d bytes allocated per iteration, %d collections taking %d ms%s%s",
+                getIterations(), getAllocatedBytesPerIteration(), getGcCount() - startGcCount, getGcMillis(),
+                stoppedForGc ? ", stopped early to avoid gc pauses" : "",
+                unusedNanos >= 0 ? String.format(", decided with %d ms left", unusedNanos / 1000000) : "");
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            count += Math.max(0, gcBean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcNanos() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            millis += Math.max(0, gcBean.getCollectionTime());
+        }
+        return millis * 1000000;
+    }
+}
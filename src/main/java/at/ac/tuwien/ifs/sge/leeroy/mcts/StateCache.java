@@ -0,0 +1,45 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+/**
+ * Limits the number of ActionNodes holding their game state.
+ * The nodes are registered when their state is materialized and kept in a ring (CLOCK replacement): using a node's
+ * state only sets its referenced flag, so reading states never takes a lock. If more nodes than the budget would hold
+ * their state, the hand sweeps the ring, gives referenced nodes a second chance and evicts the first one which was not
+ * used since the hand passed it last (it rebuilds its state from an ancestor if it is needed again).
+ */
+public class StateCache {
+
+    // number of game states kept per tree, can be set with -Dleeroy.mcts.cachedStates=<n>
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("leeroy.mcts.cachedStates", 4096);
+
+    private final ActionNode[] materializedNodes;
+    private int hand = 0;
+
+    public StateCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of nodes holding their game state
+     */
+    public StateCache(int capacity) {
+        this.materializedNodes = new ActionNode[Math.max(1, capacity)];
+    }
+
+    /**
+     * Register a node which has just materialized its state, evicting the state of a cold node if the budget is used up
+     *
+     * @param node The node now holding its game state
+     */
+    synchronized void add(ActionNode node) {
+        // terminates within two rounds, since the first round clears all referenced flags
+        while (materializedNodes[hand] != null && materializedNodes[hand].clearReferenced()) {
+            hand = (hand + 1) % materializedNodes.length;
+        }
+        if (materializedNodes[hand] != null) {
+            materializedNodes[hand].evictState();
+        }
+        materializedNodes[hand] = node;
+        hand = (hand + 1) % materializedNodes.length;
+    }
+}
@@ -0,0 +1,61 @@
+package at.ac.tuwien.ifs.sge.leeroy.mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded table of the nodes reached per game state hash.
+ * If it is full, the least recently used state is dropped, which only means that a later transposition of it is not
+ * detected anymore.
+ */
+public class TranspositionTable {
+
+    // number of states kept, can be set with -Dleeroy.mcts.transpositions=<n>
+    private static final int DEFAULT_CAPACITY = Integer.getInteger("leeroy.mcts.transpositions", 1 << 16);
+
+    private final Map<Long, ActionNode> nodes;
+
+    public TranspositionTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The maximum number of states kept in the table
+     */
+    public TranspositionTable(int capacity) {
+        this.nodes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ActionNode> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Register the node reaching a state, unless another node already reached it
+     *
+     * @param stateHash The hash of the game state of the node
+     * @param node      The node
+     * @return The node which reached the state first, the passed node if it is the first one
+     */
+    public synchronized ActionNode putIfAbsent(long stateHash, ActionNode node) {
+        ActionNode firstNode = nodes.putIfAbsent(stateHash, node);
+        return firstNode != null ? firstNode : node;
+    }
+
+    /**
+     * @param stateHash The hash of a game state
+     * @return The node which reached the state first, null if the state is not known (anymore)
+     */
+    public synchronized ActionNode get(long stateHash) {
+        return nodes.get(stateHash);
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    public synchronized void clear() {
+        nodes.clear();
+    }
+}
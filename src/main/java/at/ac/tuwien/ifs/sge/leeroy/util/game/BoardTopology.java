@@ -0,0 +1,320 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The immutable layout of a board: the adjacency of the territories (in compressed sparse rows), their continents, the
+ * continent bonuses, neighbour and continent masks, and the distances between all territories.
+ * A topology is built once per board configuration and shared read-only by all heuristics and threads, so multiple
+ * maps (e.g. the default board and boards/risk_simple_3.yaml) can be played in the same JVM. Boards are told apart by
+ * their territories, the continents and neighbours of them, and the continent bonuses.
+ * The sets returned by getNeighbors, getContinentMask and getTerritories are shared, callers must never change them.
+ */
+public class BoardTopology {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // offsets telling the kinds of terms of the layout key apart
+    private static final long TERRITORY_TERM = 0x9e3779b97f4a7c15L;
+    private static final long BORDER_TERM = 0x632be59bd9b4e019L;
+    private static final long BONUS_TERM = 0x85157af5a2c6b1d3L;
+
+    private static final Map<Long, BoardTopology> topologies = new ConcurrentHashMap<>();
+
+    private final long layoutKey;
+    private final int territoryIdBound;
+    private final TerritorySet territories;
+    private final int[] neighborOffsets;
+    private final int[] neighborIds;
+    private final TerritorySet[] neighbors;
+    private final int[] continent;
+    private final int[][] continentTerritories;
+    private final int[] continentBonus;
+    private final TerritorySet[] continents;
+    private final int[] distances;
+
+    private BoardTopology(RiskBoard board, long layoutKey) {
+        this.layoutKey = layoutKey;
+        Map<Integer, RiskTerritory> boardTerritories = board.getTerritories();
+        territoryIdBound = boardTerritories.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        territories = TerritorySet.of(boardTerritories.keySet(), territoryIdBound);
+
+        neighbors = new TerritorySet[territoryIdBound];
+        neighborOffsets = new int[territoryIdBound + 1];
+        int[][] neighborLists = new int[territoryIdBound][0];
+        for (Integer territory : boardTerritories.keySet()) {
+            Set<Integer> territoryNeighbors = board.neighboringTerritories(territory);
+            neighborLists[territory] = territoryNeighbors.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        for (int territory = 0; territory < territoryIdBound; territory++) {
+            neighbors[territory] = new TerritorySet(territoryIdBound);
+            for (int neighbor : neighborLists[territory]) {
+                neighbors[territory].add(neighbor);
+            }
+            neighborOffsets[territory + 1] = neighborOffsets[territory] + neighborLists[territory].length;
+        }
+        neighborIds = new int[neighborOffsets[territoryIdBound]];
+        for (int territory = 0; territory < territoryIdBound; territory++) {
+            System.arraycopy(neighborLists[territory], 0, neighborIds, neighborOffsets[territory], neighborLists[territory].length);
+        }
+
+        continent = new int[territoryIdBound];
+        Arrays.fill(continent, -1);
+        int maxContinent = -1;
+        for (Map.Entry<Integer, RiskTerritory> territory : boardTerritories.entrySet()) {
+            continent[territory.getKey()] = territory.getValue().getContinentId();
+            maxContinent = Math.max(maxContinent, territory.getValue().getContinentId());
+        }
+        continents = new TerritorySet[maxContinent + 1];
+        continentTerritories = new int[maxContinent + 1][];
+        continentBonus = new int[maxContinent + 1];
+        for (int c = 0; c <= maxContinent; c++) {
+            continents[c] = new TerritorySet(territoryIdBound);
+        }
+        for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+            continents[continent[territory]].add(territory);
+        }
+        for (int c = 0; c <= maxContinent; c++) {
+            continentTerritories[c] = new int[continents[c].size()];
+            int filled = 0;
+            for (int territory = continents[c].next(0); territory >= 0; territory = continents[c].next(territory + 1)) {
+                continentTerritories[c][filled++] = territory;
+            }
+            continentBonus[c] = filled > 0 ? board.getContinentBonus(c) : 0;
+        }
+
+        distances = new int[territoryIdBound * territoryIdBound];
+        for (int territory = 0; territory < territoryIdBound; territory++) {
+            computeDistances(territory);
+        }
+    }
+
+    /**
+     * Breadth first search from one territory, filling its row of the distance table
+     */
+    private void computeDistances(int source) {
+        int rowOffset = source * territoryIdBound;
+        Arrays.fill(distances, rowOffset, rowOffset + territoryIdBound, UNREACHABLE);
+        if (!territories.contains(source)) {
+            return;
+        }
+        int[] queue = new int[territoryIdBound];
+        int head = 0;
+        int tail = 0;
+        distances[rowOffset + source] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int territory = queue[head++];
+            for (int i = neighborOffsets[territory]; i < neighborOffsets[territory + 1]; i++) {
+                int neighbor = neighborIds[i];
+                if (distances[rowOffset + neighbor] == UNREACHABLE) {
+                    distances[rowOffset + neighbor] = distances[rowOffset + territory] + 1;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the topology of a board, it is built once per board configuration and cached afterwards.
+     * Telling the configuration apart walks all territories and borders of the board, so it should be looked up once
+     * per game or search root (see ActionNode.getTopology) and handed down, not for every board.
+     *
+     * @param board The risk board
+     * @return The topology of the board
+     */
+    public static BoardTopology of(RiskBoard board) {
+        return topologies.computeIfAbsent(getLayoutKey(board), key -> new BoardTopology(board, key));
+    }
+
+    private static long getLayoutKey(RiskBoard board) {
+        // sums of mixed terms do not depend on the iteration order of the territories and their neighbours
+        long key = 0;
+        Set<Integer> continentIds = new HashSet<>();
+        for (Map.Entry<Integer, RiskTerritory> territory : board.getTerritories().entrySet()) {
+            int territoryId = territory.getKey();
+            int continentId = territory.getValue().getContinentId();
+            key += mix(TERRITORY_TERM + ((long) territoryId << 32 | continentId & 0xFFFFFFFFL));
+            for (int neighbor : board.neighboringTerritories(territoryId)) {
+                key += mix(BORDER_TERM + ((long) territoryId << 32 | neighbor & 0xFFFFFFFFL));
+            }
+            continentIds.add(continentId);
+        }
+        for (int continentId : continentIds) {
+            key += mix(BONUS_TERM + ((long) continentId << 32 | board.getContinentBonus(continentId) & 0xFFFFFFFFL));
+        }
+        return key;
+    }
+
+    private static long mix(long value) {
+        long mixed = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return mixed ^ (mixed >>> 33);
+    }
+
+    /**
+     * @return The key telling the board configuration apart from others, it is the same in every JVM
+     */
+    public long getLayoutKey() {
+        return layoutKey;
+    }
+
+    /**
+     * @return One more than the highest territory id, arrays indexed by territory id need this size
+     */
+    public int getTerritoryIdBound() {
+        return territoryIdBound;
+    }
+
+    public TerritorySet getTerritories() {
+        return territories;
+    }
+
+    /**
+     * The neighbours of a territory are the entries of getNeighborIds from getNeighborsStart (inclusive) to
+     * getNeighborsEnd (exclusive)
+     */
+    public int getNeighborsStart(int territory) {
+        return neighborOffsets[territory];
+    }
+
+    public int getNeighborsEnd(int territory) {
+        return neighborOffsets[territory + 1];
+    }
+
+    public int[] getNeighborIds() {
+        return neighborIds;
+    }
+
+    public TerritorySet getNeighbors(int territory) {
+        return neighbors[territory];
+    }
+
+    /**
+     * @return The continent of a territory, -1 if there is no territory with this id
+     */
+    public int getContinent(int territory) {
+        return continent[territory];
+    }
+
+    /**
+     * @return The number of continent ids, some of them may have no territories
+     */
+    public int getContinentCount() {
+        return continents.length;
+    }
+
+    public TerritorySet getContinentMask(int continent) {
+        return continents[continent];
+    }
+
+    public int[] getContinentTerritories(int continent) {
+        return continentTerritories[continent];
+    }
+
+    public int getContinentBonus(int continent) {
+        return continentBonus[continent];
+    }
+
+    /**
+     * @return The number of borders between two territories, UNREACHABLE if there is no path
+     */
+    public int getDistance(int fromTerritory, int toTerritory) {
+        return distances[fromTerritory * territoryIdBound + toTerritory];
+    }
+
+    /**
+     * Get the territories occupied by a player
+     *
+     * @param board  The risk board
+     * @param player The player
+     * @return A new set of the territories of the player
+     */
+    public TerritorySet occupiedBy(RiskBoard board, int player) {
+        TerritorySet occupied = new TerritorySet(territoryIdBound);
+        for (Map.Entry<Integer, RiskTerritory> territory : board.getTerritories().entrySet()) {
+            if (territory.getValue().getOccupantPlayerId() == player) {
+                occupied.add(territory.getKey());
+            }
+        }
+        return occupied;
+    }
+
+    /**
+     * Get the territories next to at least one of the given territories, which can include the given ones
+     *
+     * @param territories The territories
+     * @return A new set of all neighbours of the territories
+     */
+    public TerritorySet neighborsOf(TerritorySet territories) {
+        TerritorySet result = new TerritorySet(territoryIdBound);
+        for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+            result.or(neighbors[territory]);
+        }
+        return result;
+    }
+
+    /**
+     * @param territory      One of the player's territories
+     * @param ownTerritories The territories of the player
+     * @return Whether the territory is next to a territory of another player
+     */
+    public boolean isFrontline(int territory, TerritorySet ownTerritories) {
+        return !ownTerritories.containsAll(neighbors[territory]);
+    }
+
+    /**
+     * @param territory      One of the player's territories
+     * @param ownTerritories The territories of the player
+     * @return The number of territories of other players next to the territory
+     */
+    public int countEnemyNeighbors(int territory, TerritorySet ownTerritories) {
+        return neighbors[territory].sizeWithout(ownTerritories);
+    }
+
+    /**
+     * @param ownTerritories The territories of a player
+     * @return A new set of the player's territories next to a territory of another player
+     */
+    public TerritorySet frontlineOf(TerritorySet ownTerritories) {
+        TerritorySet frontline = new TerritorySet(territoryIdBound);
+        for (int territory = ownTerritories.next(0); territory >= 0; territory = ownTerritories.next(territory + 1)) {
+            if (isFrontline(territory, ownTerritories)) {
+                frontline.add(territory);
+            }
+        }
+        return frontline;
+    }
+
+    /**
+     * Count the areas of a player's territories, an area is a set of territories where each one can be reached
+     * from every other one without having to enter territories of other players
+     *
+     * @param ownTerritories The territories of the player
+     * @return The number of areas
+     */
+    public int countAreas(TerritorySet ownTerritories) {
+        TerritorySet remaining = ownTerritories.copy();
+        TerritorySet area = new TerritorySet(territoryIdBound);
+        int areas = 0;
+        for (int start = remaining.next(0); start >= 0; start = remaining.next(start + 1)) {
+            area.clear();
+            area.add(start);
+            TerritorySet frontier = area.copy();
+            while (!frontier.isEmpty()) {
+                frontier = neighborsOf(frontier).and(remaining).andNot(area);
+                area.or(frontier);
+            }
+            remaining.andNot(area);
+            areas++;
+        }
+        return areas;
+    }
+}
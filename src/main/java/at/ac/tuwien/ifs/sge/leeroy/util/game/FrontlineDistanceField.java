@@ -0,0 +1,168 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+
+import java.util.Arrays;
+
+/**
+ * The distance of each of a player's territories to the closest frontline territory of the player, i.e. the number of
+ * borders troops have to cross (only over the player's territories) to reach a territory next to an enemy.
+ * The distances are computed by one breadth first search starting at all frontline territories at once. After the
+ * player occupies another territory, only the area of the player containing it can change, so the field of the new
+ * board is derived by searching just that area again (withOccupied), the occupy actions use this to judge the
+ * territories as they are after the conquest.
+ * A field is immutable and can be shared. The evaluation of the search does not use it, it keeps its frontline
+ * features per territory and updates them incrementally (see IncrementalEvaluator).
+ */
+public class FrontlineDistanceField {
+
+    public static final int UNREACHABLE = BoardTopology.UNREACHABLE;
+
+    private final BoardTopology topology;
+    private final int player;
+    private final TerritorySet ownTerritories;
+    private final int[] distances;
+
+    private FrontlineDistanceField(BoardTopology topology, int player, TerritorySet ownTerritories, int[] distances) {
+        this.topology = topology;
+        this.player = player;
+        this.ownTerritories = ownTerritories;
+        this.distances = distances;
+    }
+
+    /**
+     * Get the field of a player on a board
+     *
+     * @param board    The risk board
+     * @param topology The topology of the board
+     * @param player   The player
+     * @return The distances of the player's territories to the frontline
+     */
+    public static FrontlineDistanceField of(RiskBoard board, BoardTopology topology, int player) {
+        return of(topology, player, topology.occupiedBy(board, player));
+    }
+
+    /**
+     * Get the field of the player of a rollout
+     *
+     * @param rollout The rollout state
+     * @return The distances of the player's territories to the frontline
+     */
+    public static FrontlineDistanceField of(RolloutRisk rollout) {
+        BoardTopology topology = rollout.getTopology();
+        TerritorySet ownTerritories = new TerritorySet(topology.getTerritoryIdBound());
+        TerritorySet territories = topology.getTerritories();
+        for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+            if (rollout.getOwner(territory) == rollout.getPlayer()) {
+                ownTerritories.add(territory);
+            }
+        }
+        return of(topology, rollout.getPlayer(), ownTerritories);
+    }
+
+    /**
+     * @param topology       The topology of the board
+     * @param player         The player
+     * @param ownTerritories The territories of the player, the set must not be changed later on
+     * @return The distances of the player's territories to the frontline
+     */
+    public static FrontlineDistanceField of(BoardTopology topology, int player, TerritorySet ownTerritories) {
+        int[] distances = new int[topology.getTerritoryIdBound()];
+        Arrays.fill(distances, UNREACHABLE);
+        FrontlineDistanceField field = new FrontlineDistanceField(topology, player, ownTerritories, distances);
+        field.computeDistances(ownTerritories);
+        return field;
+    }
+
+    /**
+     * Derive the field after the player occupied a territory
+     *
+     * @param territory The territory occupied by the player
+     * @return The distances of the player's territories to the frontline after the occupation
+     */
+    public FrontlineDistanceField withOccupied(int territory) {
+        TerritorySet newOwnTerritories = ownTerritories.copy();
+        newOwnTerritories.add(territory);
+        FrontlineDistanceField field = new FrontlineDistanceField(topology, player, newOwnTerritories, distances.clone());
+
+        // the area of the territory is the only one whose frontline can change
+        TerritorySet area = new TerritorySet(topology.getTerritoryIdBound());
+        area.add(territory);
+        TerritorySet frontier = area.copy();
+        while (!frontier.isEmpty()) {
+            frontier = topology.neighborsOf(frontier).and(newOwnTerritories).andNot(area);
+            area.or(frontier);
+        }
+        for (int areaTerritory = area.next(0); areaTerritory >= 0; areaTerritory = area.next(areaTerritory + 1)) {
+            field.distances[areaTerritory] = UNREACHABLE;
+        }
+        field.computeDistances(area);
+        return field;
+    }
+
+    /**
+     * Breadth first search from all frontline territories of the given territories, over the given territories
+     */
+    private void computeDistances(TerritorySet territories) {
+        int[] queue = new int[territories.size()];
+        int head = 0;
+        int tail = 0;
+        for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+            if (topology.isFrontline(territory, ownTerritories)) {
+                distances[territory] = 0;
+                queue[tail++] = territory;
+            }
+        }
+        int[] neighborIds = topology.getNeighborIds();
+        while (head < tail) {
+            int territory = queue[head++];
+            for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+                int neighbor = neighborIds[i];
+                if (distances[neighbor] == UNREACHABLE && territories.contains(neighbor)) {
+                    distances[neighbor] = distances[territory] + 1;
+                    queue[tail++] = neighbor;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param territory One of the player's territories
+     * @return The number of borders to the closest frontline territory, UNREACHABLE for territories of other players
+     * and areas of the player without a frontline
+     */
+    public int getDistance(int territory) {
+        return distances[territory];
+    }
+
+    /**
+     * @param territory One of the player's territories
+     * @return Whether the territory is next to a territory of another player
+     */
+    public boolean isFrontline(int territory) {
+        return distances[territory] == 0;
+    }
+
+    /**
+     * @param territory One of the player's territories
+     * @return The number of territories of other players next to the territory
+     */
+    public int countEnemyNeighbors(int territory) {
+        return topology.countEnemyNeighbors(territory, ownTerritories);
+    }
+
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return The territories of the player, the set must not be changed
+     */
+    public TerritorySet getOwnTerritories() {
+        return ownTerritories;
+    }
+
+    public BoardTopology getTopology() {
+        return topology;
+    }
+}
@@ -0,0 +1,197 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+/**
+ * Tracks the occupation of the board during the initial placement, i.e. while territories are only ever claimed and
+ * never change their occupant.
+ * The areas of the players are kept in a union-find structure over the territories, so claiming a territory only
+ * merges it with the areas of the claiming player's neighbouring territories. Together with the neighbours and the
+ * territories per continent of every player, the features of the initial placement evaluation are known after each
+ * claim without searching the board.
+ * An area is a set of territories where each one can be reached from every other one without having to enter
+ * territories of other players.
+ */
+public class PlacementTracker {
+
+    private final BoardTopology topology;
+    private final int[] occupant;
+    private final int[] areaParent;
+    private final int[] areaSize;
+    private final TerritorySet unoccupied;
+    private final int[] areas;
+    private final TerritorySet[] neighbors;
+    private final int[][] continentTerritories;
+    private final int[] continentsTouched;
+    private final int[] continentBonus;
+
+    /**
+     * Create a tracker for a board where no territory is occupied yet
+     *
+     * @param topology        The topology of the board
+     * @param numberOfPlayers The number of players
+     */
+    public PlacementTracker(BoardTopology topology, int numberOfPlayers) {
+        this.topology = topology;
+        int territoryIdBound = topology.getTerritoryIdBound();
+        occupant = new int[territoryIdBound];
+        areaParent = new int[territoryIdBound];
+        areaSize = new int[territoryIdBound];
+        for (int territory = 0; territory < territoryIdBound; territory++) {
+            occupant[territory] = -1;
+            areaParent[territory] = territory;
+            areaSize[territory] = 1;
+        }
+        unoccupied = topology.getTerritories().copy();
+        areas = new int[numberOfPlayers];
+        neighbors = new TerritorySet[numberOfPlayers];
+        continentTerritories = new int[numberOfPlayers][topology.getContinentCount()];
+        continentsTouched = new int[numberOfPlayers];
+        continentBonus = new int[numberOfPlayers];
+        for (int player = 0; player < numberOfPlayers; player++) {
+            neighbors[player] = new TerritorySet(territoryIdBound);
+        }
+    }
+
+    /**
+     * Create a tracker for a partially occupied board
+     *
+     * @param topology            The topology of the board
+     * @param occupiedTerritories The territories per player (indexed by player id)
+     * @return The tracker
+     */
+    public static PlacementTracker of(BoardTopology topology, TerritorySet[] occupiedTerritories) {
+        PlacementTracker tracker = new PlacementTracker(topology, occupiedTerritories.length);
+        for (int player = 0; player < occupiedTerritories.length; player++) {
+            TerritorySet territories = occupiedTerritories[player];
+            for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+                tracker.claim(territory, player);
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Let a player occupy an unoccupied territory
+     *
+     * @param territory The territory
+     * @param player    The player
+     */
+    public void claim(int territory, int player) {
+        occupant[territory] = player;
+        unoccupied.remove(territory);
+        areas[player]++;
+        int[] neighborIds = topology.getNeighborIds();
+        for (int i = topology.getNeighborsStart(territory); i < topology.getNeighborsEnd(territory); i++) {
+            int neighbor = neighborIds[i];
+            if (occupant[neighbor] == player && union(territory, neighbor)) {
+                areas[player]--;
+            }
+        }
+        neighbors[player].or(topology.getNeighbors(territory));
+
+        int continent = topology.getContinent(territory);
+        int claimedInContinent = ++continentTerritories[player][continent];
+        if (claimedInContinent == 1) {
+            continentsTouched[player]++;
+        }
+        if (claimedInContinent == topology.getContinentTerritories(continent).length) {
+            continentBonus[player] += topology.getContinentBonus(continent);
+        }
+    }
+
+    /**
+     * Get the number of areas a player would have after occupying a territory, without occupying it
+     *
+     * @param territory An unoccupied territory
+     * @param player    The player
+     * @return The number of areas of the player after the occupation
+     */
+    public int getAreasAfterClaim(int territory, int player) {
+        int[] neighborIds = topology.getNeighborIds();
+        int start = topology.getNeighborsStart(territory);
+        int end = topology.getNeighborsEnd(territory);
+        int mergedAreas = 0;
+        for (int i = start; i < end; i++) {
+            if (occupant[neighborIds[i]] != player) {
+                continue;
+            }
+            int root = find(neighborIds[i]);
+            boolean counted = false;
+            for (int j = start; j < i && !counted; j++) {
+                counted = occupant[neighborIds[j]] == player && find(neighborIds[j]) == root;
+            }
+            if (!counted) {
+                mergedAreas++;
+            }
+        }
+        return areas[player] + 1 - mergedAreas;
+    }
+
+    private int find(int territory) {
+        while (areaParent[territory] != territory) {
+            // path halving
+            areaParent[territory] = areaParent[areaParent[territory]];
+            territory = areaParent[territory];
+        }
+        return territory;
+    }
+
+    /**
+     * @return Whether the territories were in different areas before
+     */
+    private boolean union(int territoryA, int territoryB) {
+        int rootA = find(territoryA);
+        int rootB = find(territoryB);
+        if (rootA == rootB) {
+            return false;
+        }
+        if (areaSize[rootA] < areaSize[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        areaParent[rootB] = rootA;
+        areaSize[rootA] += areaSize[rootB];
+        return true;
+    }
+
+    /**
+     * @return The territories nobody occupies yet, the set must not be changed
+     */
+    public TerritorySet getUnoccupied() {
+        return unoccupied;
+    }
+
+    public int getOccupant(int territory) {
+        return occupant[territory];
+    }
+
+    public int getAreas(int player) {
+        return areas[player];
+    }
+
+    /**
+     * @return The number of territories next to at least one of the player's territories, which includes the player's
+     * own territories with a neighbour of the player
+     */
+    public int getNeighborCount(int player) {
+        return neighbors[player].size();
+    }
+
+    /**
+     * @return The number of continents the player occupies at least one territory of
+     */
+    public int getContinentsTouched(int player) {
+        return continentsTouched[player];
+    }
+
+    /**
+     * @return The troops the player receives for the continents it fully occupies
+     */
+    public int getContinentBonus(int player) {
+        return continentBonus[player];
+    }
+
+    public int getNumberOfPlayers() {
+        return areas.length;
+    }
+}
@@ -0,0 +1,309 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A lean, mutable forward model of the attack phase of a risk game, used for rollouts.
+ * Instead of copying the whole game (including its action history) for every action like Risk.doAction, it keeps the
+ * owners and troops of the territories in arrays and changes them in place.
+ * It covers attacking, the casualties of an attack, and occupying a conquered territory. Ending the attack phase ends
+ * the rollout, other phases (reinforcement, card trades, fortification) are not modelled.
+ * Actions can be converted from and to RiskActions, see RolloutDifferentialCheck for the comparison with sge's Risk.
+ */
+public class RolloutRisk {
+
+    public static final int ATTACK = 0;
+    public static final int CASUALTIES = 1;
+    public static final int OCCUPY = 2;
+    public static final int ATTACK_ENDED = 3;
+    public static final int GAME_OVER = 4;
+
+    private static final long ATTACK_ACTION = 0;
+    private static final long CASUALTIES_ACTION = 1;
+    private static final long OCCUPY_ACTION = 2;
+    private static final long END_PHASE_ACTION_TYPE = 3;
+    public static final long END_PHASE_ACTION = END_PHASE_ACTION_TYPE << 48;
+
+    private static final int MAX_ATTACKER_DICE = 3;
+    private static final int MAX_DEFENDER_DICE = 2;
+
+    private final BoardTopology topology;
+    private final int[] owner;
+    private final int[] troops;
+    private final int[] territoryCount;
+    private final int player;
+    private int phase;
+    private int attackingId = -1;
+    private int defendingId = -1;
+    private int attackingTroops = 0;
+
+    private RolloutRisk(BoardTopology topology, int numberOfPlayers, int player) {
+        this.topology = topology;
+        this.owner = new int[topology.getTerritoryIdBound()];
+        this.troops = new int[topology.getTerritoryIdBound()];
+        this.territoryCount = new int[numberOfPlayers];
+        this.player = player;
+        Arrays.fill(owner, -1);
+    }
+
+    /**
+     * Create the rollout state of a risk game in the attack, casualty, or occupy phase
+     *
+     * @param game          The risk game
+     * @param topology      The topology of the board of the game
+     * @param pendingAttack The attack whose casualties or occupation is pending (only needed in those phases)
+     * @return The rollout state, null if the phase of the game is not modelled
+     */
+    public static RolloutRisk of(Risk game, BoardTopology topology, RiskAction pendingAttack) {
+        RiskBoard board = game.getBoard();
+        int currentPlayer = game.getCurrentPlayer();
+        int state;
+        if (game.isGameOver()) {
+            state = GAME_OVER;
+        } else if (board.isAttackPhase() && currentPlayer >= 0) {
+            state = ATTACK;
+        } else if (board.isAttackPhase() && pendingAttack != null && !pendingAttack.isEndPhase()) {
+            state = CASUALTIES;
+        } else if (board.isOccupyPhase() && pendingAttack != null && !pendingAttack.isEndPhase()) {
+            state = OCCUPY;
+        } else {
+            return null;
+        }
+
+        Map<Integer, RiskTerritory> territories = board.getTerritories();
+        int attacker = state == CASUALTIES ? territories.get(pendingAttack.attackingId()).getOccupantPlayerId() : currentPlayer;
+        RolloutRisk rollout = new RolloutRisk(topology, board.getNumberOfPlayers(), attacker);
+        for (Map.Entry<Integer, RiskTerritory> territory : territories.entrySet()) {
+            int occupant = territory.getValue().getOccupantPlayerId();
+            rollout.owner[territory.getKey()] = occupant;
+            rollout.troops[territory.getKey()] = territory.getValue().getTroops();
+            if (occupant >= 0 && occupant < rollout.territoryCount.length) {
+                rollout.territoryCount[occupant]++;
+            }
+        }
+        rollout.phase = state;
+        if (state == CASUALTIES || state == OCCUPY) {
+            rollout.attackingId = pendingAttack.attackingId();
+            rollout.defendingId = pendingAttack.defendingId();
+            rollout.attackingTroops = pendingAttack.troops();
+        }
+        return rollout;
+    }
+
+    /**
+     * Start an attack, the casualties are applied by a following call of casualties
+     *
+     * @param attackingId The territory attacking
+     * @param defendingId The territory attacked
+     * @param attackers   The number of attacking troops (dice)
+     */
+    public void attack(int attackingId, int defendingId, int attackers) {
+        this.attackingId = attackingId;
+        this.defendingId = defendingId;
+        this.attackingTroops = attackers;
+        this.phase = CASUALTIES;
+    }
+
+    /**
+     * @return The number of dice compared in the pending attack, the casualties of both sides add up to it
+     */
+    public int getComparedDice() {
+        return Math.min(getAttackerDice(), getDefenderDice());
+    }
+
+    public int getAttackerDice() {
+        return Math.min(attackingTroops, MAX_ATTACKER_DICE);
+    }
+
+    public int getDefenderDice() {
+        return Math.min(troops[defendingId], MAX_DEFENDER_DICE);
+    }
+
+    /**
+     * Apply the casualties of the pending attack
+     *
+     * @param attackerCasualties The troops the attacker loses
+     * @param defenderCasualties The troops the defender loses
+     */
+    public void casualties(int attackerCasualties, int defenderCasualties) {
+        troops[attackingId] -= attackerCasualties;
+        troops[defendingId] -= defenderCasualties;
+        phase = troops[defendingId] <= 0 ? OCCUPY : ATTACK;
+    }
+
+    /**
+     * Move troops into the territory conquered by the pending attack
+     *
+     * @param movedTroops The troops to move from the attacking territory
+     */
+    public void occupy(int movedTroops) {
+        int defender = owner[defendingId];
+        if (defender >= 0 && defender < territoryCount.length) {
+            territoryCount[defender]--;
+        }
+        territoryCount[player]++;
+        owner[defendingId] = player;
+        troops[attackingId] -= movedTroops;
+        troops[defendingId] += movedTroops;
+        phase = isOnlyPlayerLeft() ? GAME_OVER : ATTACK;
+    }
+
+    public void endAttackPhase() {
+        phase = ATTACK_ENDED;
+    }
+
+    private boolean isOnlyPlayerLeft() {
+        for (int otherPlayer = 0; otherPlayer < territoryCount.length; otherPlayer++) {
+            if (otherPlayer != player && territoryCount[otherPlayer] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encode an attack as a rollout action
+     *
+     * @param attackingId The territory attacking
+     * @param defendingId The territory attacked
+     * @param attackers   The number of attacking troops
+     * @return The encoded action
+     */
+    public static long attackAction(int attackingId, int defendingId, int attackers) {
+        return encode(ATTACK_ACTION, attackingId, defendingId, attackers);
+    }
+
+    public static long casualtiesAction(int attackerCasualties, int defenderCasualties) {
+        return encode(CASUALTIES_ACTION, attackerCasualties, defenderCasualties, 0);
+    }
+
+    public static long occupyAction(int movedTroops) {
+        return encode(OCCUPY_ACTION, 0, 0, movedTroops);
+    }
+
+    private static long encode(long type, int first, int second, int troops) {
+        return type << 48 | (first & 0xFFFFL) << 32 | (second & 0xFFFFL) << 16 | (troops & 0xFFFFL);
+    }
+
+    /**
+     * Apply an encoded rollout action
+     *
+     * @param action The action, has to be valid in the current phase
+     */
+    public void apply(long action) {
+        int first = (int) (action >>> 32 & 0xFFFF);
+        int second = (int) (action >>> 16 & 0xFFFF);
+        int actionTroops = (int) (action & 0xFFFF);
+        switch ((int) (action >>> 48)) {
+            case (int) ATTACK_ACTION:
+                attack(first, second, actionTroops);
+                break;
+            case (int) CASUALTIES_ACTION:
+                casualties(first, second);
+                break;
+            case (int) OCCUPY_ACTION:
+                occupy(actionTroops);
+                break;
+            default:
+                endAttackPhase();
+        }
+    }
+
+    /**
+     * Encode an action of the sge risk game, it has to be valid in the current phase
+     *
+     * @param action The RiskAction
+     * @return The encoded rollout action
+     */
+    public long fromRiskAction(RiskAction action) {
+        if (phase == CASUALTIES) {
+            return casualtiesAction(action.attackerCasualties(), action.defenderCasualties());
+        } else if (action.isEndPhase()) {
+            return END_PHASE_ACTION;
+        } else if (phase == OCCUPY) {
+            return occupyAction(action.troops());
+        }
+        return attackAction(action.attackingId(), action.defendingId(), action.troops());
+    }
+
+    /**
+     * Convert an encoded rollout action to a RiskAction.
+     * Casualties are chance events decided by the game, they have no RiskAction a player could choose.
+     *
+     * @param action The encoded action
+     * @return The corresponding RiskAction, null for casualties
+     */
+    public static RiskAction toRiskAction(long action) {
+        int first = (int) (action >>> 32 & 0xFFFF);
+        int second = (int) (action >>> 16 & 0xFFFF);
+        int actionTroops = (int) (action & 0xFFFF);
+        switch ((int) (action >>> 48)) {
+            case (int) ATTACK_ACTION:
+                return RiskAction.attack(first, second, actionTroops);
+            case (int) OCCUPY_ACTION:
+                return RiskAction.occupy(actionTroops);
+            case (int) CASUALTIES_ACTION:
+                return null;
+            default:
+                return RiskAction.endPhase();
+        }
+    }
+
+    /**
+     * @return Whether the rollout can continue (the attack phase was not ended and the game is not over)
+     */
+    public boolean isRunning() {
+        return phase == ATTACK || phase == CASUALTIES || phase == OCCUPY;
+    }
+
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The player attacking during this rollout
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    public int getOwner(int territory) {
+        return owner[territory];
+    }
+
+    public int getTroops(int territory) {
+        return troops[territory];
+    }
+
+    /**
+     * @return The troops of a territory which can attack (or move), one has to stay
+     */
+    public int getMobileTroops(int territory) {
+        return Math.max(0, troops[territory] - 1);
+    }
+
+    public int getAttackingId() {
+        return attackingId;
+    }
+
+    public int getDefendingId() {
+        return defendingId;
+    }
+
+    /**
+     * @return The topology of the board, territory ids without a territory keep the owner -1
+     */
+    public BoardTopology getTopology() {
+        return topology;
+    }
+
+    public int getNumberOfPlayers() {
+        return territoryCount.length;
+    }
+}
@@ -0,0 +1,210 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of territory ids stored as bits.
+ * A single long covers the 42 territories of the default board, larger boards use multiple words. The set operations
+ * work in place on the words, so checking or combining sets of territories neither boxes ids nor allocates.
+ */
+public class TerritorySet {
+
+    private static final int WORD_BITS = Long.SIZE;
+
+    private final long[] words;
+
+    /**
+     * Create an empty set
+     *
+     * @param territoryIdBound The territory ids of the set have to be lower than this bound
+     */
+    public TerritorySet(int territoryIdBound) {
+        this.words = new long[Math.max(1, (territoryIdBound + WORD_BITS - 1) / WORD_BITS)];
+    }
+
+    private TerritorySet(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Create a set of territory ids
+     *
+     * @param territories      The territory ids
+     * @param territoryIdBound The territory ids of the set have to be lower than this bound
+     * @return The set of the territories
+     */
+    public static TerritorySet of(Collection<Integer> territories, int territoryIdBound) {
+        TerritorySet set = new TerritorySet(territoryIdBound);
+        for (Integer territory : territories) {
+            set.add(territory);
+        }
+        return set;
+    }
+
+    public TerritorySet copy() {
+        return new TerritorySet(words.clone());
+    }
+
+    public void add(int territory) {
+        words[territory / WORD_BITS] |= 1L << territory;
+    }
+
+    public void remove(int territory) {
+        words[territory / WORD_BITS] &= ~(1L << territory);
+    }
+
+    public boolean contains(int territory) {
+        int word = territory / WORD_BITS;
+        return territory >= 0 && word < words.length && (words[word] & 1L << territory) != 0;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * Keep only the territories also in the other set
+     *
+     * @param other The other set
+     * @return This set
+     */
+    public TerritorySet and(TerritorySet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+        return this;
+    }
+
+    /**
+     * Add all territories of the other set
+     *
+     * @param other The other set
+     * @return This set
+     */
+    public TerritorySet or(TerritorySet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        return this;
+    }
+
+    /**
+     * Remove all territories of the other set
+     *
+     * @param other The other set
+     * @return This set
+     */
+    public TerritorySet andNot(TerritorySet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+        return this;
+    }
+
+    public boolean intersects(TerritorySet other) {
+        for (int i = 0; i < words.length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsAll(TerritorySet other) {
+        for (int i = 0; i < words.length; i++) {
+            if ((other.words[i] & ~words[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count the territories of this set which are not in the other set, without creating the difference
+     *
+     * @param other The other set
+     * @return The number of territories only in this set
+     */
+    public int sizeWithout(TerritorySet other) {
+        int size = 0;
+        for (int i = 0; i < words.length; i++) {
+            size += Long.bitCount(words[i] & ~other.words[i]);
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        int size = 0;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /**
+     * Iterate over the territories with: for (int t = set.next(0); t >= 0; t = set.next(t + 1))
+     *
+     * @param fromTerritory The lowest territory id to consider
+     * @return The lowest territory id of the set not lower than fromTerritory, -1 if there is none
+     */
+    public int next(int fromTerritory) {
+        int word = fromTerritory / WORD_BITS;
+        if (word >= words.length) {
+            return -1;
+        }
+        long remaining = words[word] & -1L << fromTerritory;
+        while (true) {
+            if (remaining != 0) {
+                return word * WORD_BITS + Long.numberOfTrailingZeros(remaining);
+            }
+            if (++word == words.length) {
+                return -1;
+            }
+            remaining = words[word];
+        }
+    }
+
+    /**
+     * @return The territory ids of this set as boxed set, for the callers working with the sge collections
+     */
+    public Set<Integer> toSet() {
+        Set<Integer> territories = new HashSet<>();
+        for (int territory = next(0); territory >= 0; territory = next(territory + 1)) {
+            territories.add(territory);
+        }
+        return territories;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Arrays.equals(words, ((TerritorySet) o).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return toSet().toString();
+    }
+}
@@ -4,7 +4,6 @@ import at.ac.tuwien.ifs.sge.game.Game;
 import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
 import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
-import at.ac.tuwien.ifs.sge.leeroy.util.heuristics.TerritoryBonusProvider;
 import at.ac.tuwien.ifs.sge.leeroy.util.logging.RiskLogger;
 import at.ac.tuwien.ifs.sge.leeroy.util.logging.RiskLoggerProvider;
 
@@ -69,15 +68,18 @@ public class TransparentRisk extends Risk {
         int actionNr = getActionRecords().size();
         RiskLogger rlp = RiskLoggerProvider.getInstance().forGame(this.gameName);
 
+        RiskBoard riskBoard = getBoard();
+        BoardTopology topology = BoardTopology.of(riskBoard);
         Map<Integer, Double> continentOccupationRate = new HashMap<>();
-        for (Integer continentId : TerritoryBonusProvider.getInstance().getContinentIds()) {
-            continentOccupationRate.put(continentId, 0.0);
+        for (int continentId = 0; continentId < topology.getContinentCount(); continentId++) {
+            if (topology.getContinentTerritories(continentId).length > 0) {
+                continentOccupationRate.put(continentId, 0.0);
+            }
         }
         long nrFrontlineTroops = 0;
         long nrBackupTroops = 0;
         int nrFrontlineTerritories = 0;
         int nrBackupTerritories = 0;
-        RiskBoard riskBoard = getBoard();
         for (Integer occupiedTerritory : riskBoard.getTerritoriesOccupiedByPlayer(activePlayer)) {
             long nrTroops = riskBoard.getTerritoryTroops(occupiedTerritory);
             if (riskBoard.neighboringEnemyTerritories(occupiedTerritory).isEmpty()) {
@@ -88,8 +90,8 @@ public class TransparentRisk extends Risk {
                 nrFrontlineTerritories += 1;
             }
             // continent based information
-            int continentId = riskBoard.getTerritories().get(occupiedTerritory).getContinentId();
-            double occupationRate = continentOccupationRate.get(continentId) + 1.0/TerritoryBonusProvider.getInstance().getTerritorySize(continentId);
+            int continentId = topology.getContinent(occupiedTerritory);
+            double occupationRate = continentOccupationRate.get(continentId) + 1.0/topology.getContinentTerritories(continentId).length;
             continentOccupationRate.put(continentId, occupationRate);
         }
         long nrTotalTroops = nrFrontlineTroops + nrBackupTroops;
@@ -0,0 +1,124 @@
+package at.ac.tuwien.ifs.sge.leeroy.util.game;
+
+import at.ac.tuwien.ifs.sge.game.risk.board.Risk;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskAction;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskBoard;
+import at.ac.tuwien.ifs.sge.game.risk.board.RiskTerritory;
+
+import java.util.Map;
+
+/**
+ * Zobrist style hashing of risk game states.
+ * The hash is the XOR of one pseudo random key per feature of the state: the owner and the troops of each territory,
+ * the phase, and the current player. The keys are derived from the feature by a fixed mixing function, so they are
+ * the same in every JVM and do not need any tables.
+ */
+public class ZobristHash {
+
+    private static final long OWNER_FEATURE = 1;
+    private static final long TROOPS_FEATURE = 2;
+    private static final long PHASE_FEATURE = 3;
+    private static final long PLAYER_FEATURE = 4;
+    private static final long ACTION_FEATURE = 5;
+
+    private static final int REINFORCEMENT_PHASE = 0;
+    private static final int ATTACK_PHASE = 1;
+    private static final int OCCUPY_PHASE = 2;
+    private static final int FORTIFY_PHASE = 3;
+    private static final int OTHER_PHASE = 4;
+
+    /**
+     * Hash the state of a risk game
+     *
+     * @param game  The risk game
+     * @param board The board of the game (separate so it can be cached)
+     * @return The hash of the territory owners, the troop counts, the phase, and the current player
+     */
+    public static long of(Risk game, RiskBoard board) {
+        long hash = key(PHASE_FEATURE, 0, getPhase(board)) ^ key(PLAYER_FEATURE, 0, game.getCurrentPlayer());
+        for (Map.Entry<Integer, RiskTerritory> territory : board.getTerritories().entrySet()) {
+            hash ^= key(OWNER_FEATURE, territory.getKey(), territory.getValue().getOccupantPlayerId());
+            hash ^= key(TROOPS_FEATURE, territory.getKey(), territory.getValue().getTroops());
+        }
+        return hash;
+    }
+
+    /**
+     * Hash the state of a risk game together with the actions possible in it.
+     * The state hash does not cover the cards in hand and the troops left to place. In the reinforcement phase they
+     * show in the possible trade-ins and reinforcements, so two states with the same hash here offer the same actions.
+     *
+     * @param game  The risk game
+     * @param board The board of the game (separate so it can be cached)
+     * @return The hash of the state and of the possible actions
+     */
+    public static long ofWithPossibleActions(Risk game, RiskBoard board) {
+        long hash = of(game, board);
+        for (RiskAction action : game.getPossibleActions()) {
+            hash ^= key(ACTION_FEATURE, 0, action.hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Hash the occupation of a board in the initial placement phase, only the owners of the occupied territories are
+     * part of it. So the hash of a successor is the one of its predecessor XOR the key of the newly occupied territory.
+     *
+     * @param occupiedTerritories The territories per player (indexed by player id)
+     * @return The hash of the occupation
+     */
+    public static long ofOccupation(TerritorySet[] occupiedTerritories) {
+        long hash = 0;
+        for (int player = 0; player < occupiedTerritories.length; player++) {
+            TerritorySet territories = occupiedTerritories[player];
+            for (int territory = territories.next(0); territory >= 0; territory = territories.next(territory + 1)) {
+                hash ^= occupationKey(territory, player);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param territory The territory
+     * @param player    The player occupying the territory
+     * @return The key of the occupation of a single territory
+     */
+    public static long occupationKey(int territory, int player) {
+        return key(OWNER_FEATURE, territory, player);
+    }
+
+    /**
+     * Get the key of a single feature of the state
+     *
+     * @param feature   The kind of the feature
+     * @param territory The territory the feature belongs to (0 if it is a global one)
+     * @param value     The value of the feature
+     * @return The pseudo random key of the feature
+     */
+    public static long key(long feature, int territory, int value) {
+        return mix((feature << 56) ^ ((long) territory << 32) ^ (value & 0xFFFFFFFFL));
+    }
+
+    private static int getPhase(RiskBoard board) {
+        if (board.isReinforcementPhase()) {
+            return REINFORCEMENT_PHASE;
+        } else if (board.isAttackPhase()) {
+            return ATTACK_PHASE;
+        } else if (board.isOccupyPhase()) {
+            return OCCUPY_PHASE;
+        } else if (board.isFortifyPhase()) {
+            return FORTIFY_PHASE;
+        }
+        return OTHER_PHASE;
+    }
+
+    /**
+     * The splitmix64 finalizer, spreading every input bit over the whole output
+     */
+    private static long mix(long value) {
+        long mixed = value + 0x9E3779B97F4A7C15L;
+        mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        return mixed ^ (mixed >>> 31);
+    }
+}